@@ -0,0 +1,220 @@
+package com.cleverua.bb.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import com.cleverua.bb.utils.zip.ZipCodec;
+import com.cleverua.bb.utils.zip.ZipCodecs;
+
+/**
+ * Compresses sample data with every codec and reports speed against ratio,
+ * so a codec and a level can be picked for the data at hand.
+ *
+ * <p>
+ * Samples are generated in memory from a fixed seed: log-like text and binary data with
+ * repeated chunks. The data is compressed to memory and decompressed back, so the figures
+ * do not include the file system. Every run is checked to give the sample back.
+ * </p>
+ *
+ * <p>
+ * Every codec is run once before the measured runs, so none of them pays for class loading
+ * in the figures. Peak heap of a run is counted from the heap usage right before it, the samples
+ * and the buffer for the compressed data are allocated by then, so it is the memory the codec takes.
+ * </p>
+ */
+public class CodecBenchmark {
+
+    public static final int DEFAULT_SAMPLE_SIZE = 1024 * 1024;
+
+    private static final long SEED = 20101019L;
+    private static final int CHUNK_SIZE = 16 * 1024; // data goes to the codecs by chunks, as files do
+    private static final String[] LOG_LEVELS = { "DEBUG", "INFO", "INFO", "INFO", "WARN", "ERROR" };
+
+    private String[] codecNames;
+    private ZipCodec[] codecs;
+    private int sampleSize;
+
+    /**
+     * Creates a benchmark of no compression, DEFLATE and Zstandard at their fastest, default and best levels.
+     */
+    public CodecBenchmark() {
+        this(new String[] {
+                "stored",
+                "deflate " + ZipCodecs.DEFLATE_LEVEL_FASTEST,
+                "deflate " + ZipCodecs.DEFLATE_LEVEL_DEFAULT,
+                "deflate " + ZipCodecs.DEFLATE_LEVEL_BEST,
+                "zstd " + ZipCodecs.ZSTD_LEVEL_FASTEST,
+                "zstd " + ZipCodecs.ZSTD_LEVEL_DEFAULT,
+                "zstd " + ZipCodecs.ZSTD_LEVEL_BEST
+        }, new ZipCodec[] {
+                ZipCodecs.STORED,
+                ZipCodecs.deflate(ZipCodecs.DEFLATE_LEVEL_FASTEST),
+                ZipCodecs.deflate(ZipCodecs.DEFLATE_LEVEL_DEFAULT),
+                ZipCodecs.deflate(ZipCodecs.DEFLATE_LEVEL_BEST),
+                ZipCodecs.zstd(ZipCodecs.ZSTD_LEVEL_FASTEST),
+                ZipCodecs.zstd(ZipCodecs.ZSTD_LEVEL_DEFAULT),
+                ZipCodecs.zstd(ZipCodecs.ZSTD_LEVEL_BEST)
+        }, DEFAULT_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param codecNames - names of the codecs for the report.
+     * @param codecs - codecs to compare.
+     * @param sampleSize - size of every sample, in bytes.
+     */
+    public CodecBenchmark(String[] codecNames, ZipCodec[] codecs, int sampleSize) {
+        this.codecNames = codecNames;
+        this.codecs     = codecs;
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Runs every codec on every sample.
+     *
+     * @return human readable report, a codec not giving the sample back is marked with "ROUND TRIP FAILED".
+     */
+    public String run() throws IOException {
+        Random random = new Random(SEED);
+        final String[] sampleNames = { "text", "binary" };
+        final byte[][] samples = { generateText(sampleSize, random), generateBinary(sampleSize, random) };
+
+        // warm-up, the results are dropped
+        for (int i = 0; i < codecs.length; i++) {
+            run(codecs[i], samples[0]);
+        }
+
+        StringBuffer report = new StringBuffer();
+        for (int s = 0; s < samples.length; s++) {
+            report.append(sampleNames[s]).append(", ").append(sampleSize / 1024).append(" KB:\n");
+            for (int i = 0; i < codecs.length; i++) {
+                report.append("  ").append(codecNames[i]).append(": ").append(run(codecs[i], samples[s])).append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    private String run(ZipCodec codec, byte[] sample) throws IOException {
+        // room for data that does not compress, so the buffer does not grow while the heap is sampled
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(sample.length + sample.length / 64 + 1024);
+
+        HeapSampler sampler = new HeapSampler();
+        sampler.startSampling();
+        long start = System.currentTimeMillis();
+        OutputStream out = codec.createCompressingStream(compressed);
+        for (int off = 0; off < sample.length; off += CHUNK_SIZE) {
+            out.write(sample, off, Math.min(CHUNK_SIZE, sample.length - off));
+        }
+        out.close();
+        final long packTime = System.currentTimeMillis() - start;
+        final long peakHeap = sampler.stopSampling() - sampler.getBaseline();
+
+        final byte[] data = compressed.toByteArray();
+        compressed = null;
+
+        byte[] restored = new byte[sample.length];
+        int restoredSize = 0;
+        start = System.currentTimeMillis();
+        InputStream in = codec.createDecompressingStream(new ByteArrayInputStream(data));
+        try {
+            int count;
+            while (restoredSize < restored.length
+                    && (count = in.read(restored, restoredSize, restored.length - restoredSize)) >= 0) {
+                restoredSize += count;
+            }
+            if (in.read() >= 0) {
+                restoredSize++; // more data than there should be
+            }
+        } finally {
+            in.close();
+        }
+        final long unpackTime = System.currentTimeMillis() - start;
+
+        StringBuffer sb = new StringBuffer();
+        sb.append("ratio ").append(formatFixed(sample.length * 100L / Math.max(data.length, 1), 2))
+          .append(", pack ").append(formatSpeed(sample.length, packTime))
+          .append(", unpack ").append(formatSpeed(sample.length, unpackTime))
+          .append(", peak heap ").append(peakHeap / 1024).append(" KB");
+        if (restoredSize != sample.length || !equal(sample, restored)) {
+            sb.append(", ROUND TRIP FAILED");
+        }
+        return sb.toString();
+    }
+
+    // log lines: timestamps, levels and numbers vary, the words repeat
+    private static byte[] generateText(int size, Random random) {
+        StringBuffer sb = new StringBuffer(size + 128);
+        long time = 1287446400000L;
+        while (sb.length() < size) {
+            time += random.nextInt(2000);
+            sb.append(time).append(' ')
+              .append(LOG_LEVELS[random.nextInt(LOG_LEVELS.length)])
+              .append(" record ").append(random.nextInt(100000))
+              .append(" value ").append(random.nextInt())
+              .append(" status ").append(random.nextInt(4) == 0 ? "failed" : "ok")
+              .append('\n');
+        }
+        byte[] text = sb.toString().getBytes();
+        byte[] sample = new byte[size];
+        System.arraycopy(text, 0, sample, 0, size);
+        return sample;
+    }
+
+    // chunks of random bytes repeated at random distances, with random bytes in between
+    private static byte[] generateBinary(int size, Random random) {
+        byte[][] chunks = new byte[64][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new byte[16 + random.nextInt(4096)];
+            fillRandom(chunks[i], 0, chunks[i].length, random);
+        }
+
+        byte[] sample = new byte[size];
+        int position = 0;
+        while (position < size) {
+            if (random.nextInt(4) == 0) {
+                final int len = Math.min(1 + random.nextInt(256), size - position);
+                fillRandom(sample, position, len, random);
+                position += len;
+            } else {
+                byte[] chunk = chunks[random.nextInt(chunks.length)];
+                final int len = Math.min(chunk.length, size - position);
+                System.arraycopy(chunk, 0, sample, position, len);
+                position += len;
+            }
+        }
+        return sample;
+    }
+
+    private static void fillRandom(byte[] data, int off, int len, Random random) {
+        for (int i = off; i < off + len; i++) {
+            data[i] = (byte) random.nextInt();
+        }
+    }
+
+    private static boolean equal(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String formatSpeed(long bytes, long time) {
+        // MB/s with a single decimal, a run faster than the timer resolution counts as 1 ms
+        return formatFixed(bytes * 1000L * 10 / (Math.max(time, 1) * 1024 * 1024), 1) + " MB/s";
+    }
+
+    // value scaled by 10^decimals
+    private static String formatFixed(long value, int decimals) {
+        StringBuffer sb = new StringBuffer(Long.toString(value));
+        while (sb.length() <= decimals) {
+            sb.insert(0, '0');
+        }
+        sb.insert(sb.length() - decimals, '.');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package com.cleverua.bb.example;
+
+/**
+ * Samples the heap usage in background to find its high-water mark.
+ */
+public class HeapSampler extends Thread {
+
+    private static final long SAMPLING_PERIOD = 50; // ms
+
+    private volatile boolean stopped;
+    private long baseline;
+    private long peak;
+
+    /**
+     * Starts sampling. The usage at this moment, after garbage collection, is the first sample.
+     */
+    public void startSampling() {
+        System.gc();
+        baseline = getUsage();
+        peak = baseline;
+        start();
+    }
+
+    /**
+     * @return heap usage when the sampling was started, after garbage collection, in bytes.
+     */
+    public long getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Stops sampling.
+     * 
+     * @return max heap usage seen since {@link #startSampling()}, in bytes.
+     */
+    public long stopSampling() {
+        stopped = true;
+        try {
+            join();
+        } catch (InterruptedException e) { /* that's ok */ }
+        sample();
+        return peak;
+    }
+
+    public void run() {
+        while (!stopped) {
+            sample();
+            try {
+                sleep(SAMPLING_PERIOD);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        long usage = getUsage();
+        if (usage > peak) {
+            peak = usage;
+        }
+    }
+
+    private static long getUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
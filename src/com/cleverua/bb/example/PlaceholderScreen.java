@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import net.rim.device.api.ui.Field;
 import net.rim.device.api.ui.FieldChangeListener;
+import net.rim.device.api.ui.UiApplication;
 import net.rim.device.api.ui.component.ButtonField;
 import net.rim.device.api.ui.component.Dialog;
 import net.rim.device.api.ui.container.MainScreen;
@@ -15,11 +16,15 @@ public class PlaceholderScreen extends MainScreen {
 
     private static final String SCREEN_TITLE = "Zip Packer Demo";
     private static final String BUTTON_LABEL = "Pack";
+    private static final String SCALING_BUTTON_LABEL = "Run scaling test";
+    private static final String CODECS_BUTTON_LABEL = "Compare codecs";
 
     private static final String DIR_TO_PACK = "file:///SDCard/dir_to_pack/";
     private static final String OUTPUT_FILE = "file:///SDCard/packed.zip";
 
     private ButtonField testLoggerButton;
+    private ButtonField scalingTestButton;
+    private ButtonField codecsButton;
 
     public PlaceholderScreen() {
         super();
@@ -72,6 +77,70 @@ public class PlaceholderScreen extends MainScreen {
         });
 
         add(testLoggerButton);
+
+        scalingTestButton = new ButtonField(SCALING_BUTTON_LABEL, FIELD_HCENTER);
+
+        scalingTestButton.setChangeListener(new FieldChangeListener() {
+            public void fieldChanged(Field f, int c) {
+
+                if (!IOUtils.isSDCardPresent()) {
+                    Dialog.alert("Please, insert SDCard to run this application.");
+                    return;
+                }
+
+                scalingTestButton.setEditable(false);
+
+                // the test takes minutes, so keep it off the event thread
+                new Thread() {
+                    public void run() {
+                        String report;
+                        try {
+                            report = new ScalingHarness(1).run();
+                        } catch (Throwable e) {
+                            report = "Scaling test failed: " + e;
+                        }
+
+                        showReport(scalingTestButton, report);
+                    }
+                }.start();
+            }
+        });
+
+        add(scalingTestButton);
+
+        codecsButton = new ButtonField(CODECS_BUTTON_LABEL, FIELD_HCENTER);
+
+        codecsButton.setChangeListener(new FieldChangeListener() {
+            public void fieldChanged(Field f, int c) {
+
+                codecsButton.setEditable(false);
+
+                // the samples are compressed in memory, no SDCard needed, but it takes a while
+                new Thread() {
+                    public void run() {
+                        String report;
+                        try {
+                            report = new CodecBenchmark().run();
+                        } catch (Throwable e) {
+                            report = "Codec comparison failed: " + e;
+                        }
+                        showReport(codecsButton, report);
+                    }
+                }.start();
+            }
+        });
+
+        add(codecsButton);
+    }
+
+    // called by a background thread when the job of the button is done
+    private void showReport(final ButtonField button, final String report) {
+        UiApplication.getUiApplication().invokeLater(new Runnable() {
+            public void run() {
+                button.setEditable(true);
+                Dialog.inform(report);
+            }
+        });
     }
 
     protected boolean onSavePrompt() {
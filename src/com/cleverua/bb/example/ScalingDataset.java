@@ -0,0 +1,203 @@
+package com.cleverua.bb.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import com.cleverua.bb.utils.IOUtils;
+import com.cleverua.bb.utils.zip.ZipArchiveWriter;
+import com.cleverua.bb.utils.zip.ZipPackOptions;
+import com.cleverua.bb.utils.zip.ZipPacker;
+
+/**
+ * A dataset {@link ScalingHarness} packs.
+ *
+ * <p>
+ * Datasets are generated from a fixed seed, so every run packs exactly the same data.
+ * A generated dataset is kept on the file system and reused by the next runs.
+ * </p>
+ */
+public abstract class ScalingDataset {
+
+    /**
+     * Max number of entries the end of central directory record can hold.
+     */
+    public static final int MAX_ENTRIES = 0xffff;
+
+    /**
+     * Max length of an entry name a ZIP header can hold.
+     */
+    public static final int MAX_NAME_LENGTH = 0xffff;
+
+    private static final String DONE_MARKER_EXT = ".done";
+    private static final int WRITE_CHUNK_SIZE = 16 * 1024;
+    private static final long SEED = 20101019L;
+
+    private String name;
+
+    protected ScalingDataset(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Many small files in a flat tree, just over the {@link #MAX_ENTRIES} limit by default.
+     * Such an archive is expected to be invalid, see {@link #manyEntriesUnderLimit()} for the valid counterpart.
+     *
+     * @param scale - multiplier of the entries number.
+     */
+    public static ScalingDataset manyEntries(int scale) {
+        return manyEntries("many-entries-x" + scale, (MAX_ENTRIES + 1000) * scale);
+    }
+
+    /**
+     * Many small files in a flat tree, just under the {@link #MAX_ENTRIES} limit
+     * (directory entries included), so the archive must be valid.
+     */
+    public static ScalingDataset manyEntriesUnderLimit() {
+        return manyEntries("many-entries-under-limit", MAX_ENTRIES - 1000);
+    }
+
+    private static ScalingDataset manyEntries(String name, final int files) {
+        return new ScalingDataset(name) {
+            protected void generate(String dirUrl, Random random) throws IOException {
+                final int perDir = 1000;
+                for (int i = 0; i < files; i++) {
+                    String subDir = dirUrl + "d" + (i / perDir) + "/";
+                    if (i % perDir == 0) {
+                        IOUtils.createDir(subDir);
+                    }
+                    writeFile(subDir + "f" + i + ".txt", 16 + random.nextInt(256), random);
+                }
+            }
+        };
+    }
+
+    /**
+     * A few big files, 256 MB in total by default.
+     *
+     * @param scale - multiplier of the files number.
+     */
+    public static ScalingDataset bigFiles(final int scale) {
+        return new ScalingDataset("big-files-x" + scale) {
+            protected void generate(String dirUrl, Random random) throws IOException {
+                final int files = 4 * scale;
+                for (int i = 0; i < files; i++) {
+                    writeFile(dirUrl + "big" + i + ".bin", 64 * 1024 * 1024, random);
+                }
+            }
+        };
+    }
+
+    /**
+     * A directory tree 100 levels deep with a file on every level.
+     */
+    public static ScalingDataset deepTree() {
+        return new ScalingDataset("deep-tree") {
+            protected void generate(String dirUrl, Random random) throws IOException {
+                String level = dirUrl;
+                for (int i = 0; i < 100; i++) {
+                    level += (char) ('a' + i % 26) + "/";
+                    IOUtils.createDir(level);
+                    writeFile(level + "f.txt", 1024, random);
+                }
+            }
+        };
+    }
+
+    /**
+     * Entries with names of almost {@link #MAX_NAME_LENGTH} characters. File systems do not allow
+     * such names, so these entries are packed from memory with {@link ZipArchiveWriter}.
+     *
+     * @param scale - multiplier of the entries number.
+     */
+    public static ScalingDataset longNames(final int scale) {
+        return new ScalingDataset("long-names-x" + scale) {
+            protected void generate(String dirUrl, Random random) {
+                // nothing to generate
+            }
+
+            protected void pack(String dirUrl, String zipUrl, ZipPackOptions options) throws IOException {
+                Random random = new Random(SEED);
+                ZipArchiveWriter writer = new ZipArchiveWriter(zipUrl, options.getBufferPool());
+                try {
+                    writer.setCodec(options.getCodec());
+                    final int entries = 16 * scale;
+                    for (int i = 0; i < entries; i++) {
+                        StringBuffer entryName = new StringBuffer(MAX_NAME_LENGTH);
+                        entryName.append(i).append('_');
+                        while (entryName.length() < MAX_NAME_LENGTH - 16) {
+                            entryName.append((char) ('a' + random.nextInt(26)));
+                        }
+                        byte[] data = new byte[1024];
+                        fill(data, random);
+                        writer.addData(entryName.toString(), data);
+                    }
+                    writer.finish();
+                } finally {
+                    writer.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Generates the dataset in the <code>dirUrl</code> directory unless it is already there.
+     */
+    void prepare(String dirUrl) throws IOException {
+        // the marker lives next to the directory, so it is not packed with the dataset
+        final String markerUrl = dirUrl.substring(0, dirUrl.length() - 1) + DONE_MARKER_EXT;
+        if (IOUtils.isPresent(markerUrl)) {
+            return;
+        }
+        IOUtils.createDirIncludingAncestors(dirUrl);
+        generate(dirUrl, new Random(SEED));
+        IOUtils.saveDataToFile(markerUrl, new byte[0]);
+    }
+
+    protected abstract void generate(String dirUrl, Random random) throws IOException;
+
+    protected void pack(String dirUrl, String zipUrl, ZipPackOptions options) throws IOException {
+        ZipPacker.pack(dirUrl, zipUrl, options);
+    }
+
+    // writes the file by chunks, so big files do not need big arrays
+    protected static void writeFile(String url, long size, Random random) throws IOException {
+        FileConnection fc = null;
+        OutputStream out = null;
+
+        try {
+            fc = (FileConnection) Connector.open(url);
+            if (!fc.exists()) {
+                fc.create();
+            }
+            out = fc.openOutputStream();
+
+            byte[] chunk = new byte[(int) Math.min(size, WRITE_CHUNK_SIZE)];
+            while (size > 0) {
+                fill(chunk, random);
+                final int len = (int) Math.min(size, chunk.length);
+                out.write(chunk, 0, len);
+                size -= len;
+            }
+            out.flush();
+
+        } finally {
+            IOUtils.safelyCloseStream(out);
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+
+    // half random, half repetitive data, so compression has something to do
+    private static void fill(byte[] data, Random random) {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i & 0x100) == 0 ? (byte) random.nextInt() : (byte) ('a' + i % 26);
+        }
+    }
+}
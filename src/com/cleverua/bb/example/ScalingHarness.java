@@ -0,0 +1,224 @@
+package com.cleverua.bb.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import com.cleverua.bb.utils.IOUtils;
+import com.cleverua.bb.utils.zip.ZipPackOptions;
+import com.cleverua.bb.utils.zip.ZipVerificationResult;
+import com.cleverua.bb.utils.zip.ZipVerifier;
+
+/**
+ * Packs a set of {@link ScalingDataset datasets} and compares pack time, heap high-water mark
+ * and output validity with a baseline saved by a previous run.
+ *
+ * <p>
+ * The first run (or a run after the baseline file is deleted) saves its results as the baseline.
+ * Results of datasets the baseline does not have yet (e.g. a dataset added later) are merged
+ * into it by the run that produces them.
+ * </p>
+ */
+public class ScalingHarness {
+
+    public static final String WORK_DIR = IOUtils.CARD_ROOT + "zip_scaling/";
+
+    /**
+     * A run is a regression if its pack time or peak heap exceeds the baseline by more than this, in percent.
+     */
+    public static final int DEFAULT_TOLERANCE = 25;
+
+    private static final String BASELINE_FILE = WORK_DIR + "baseline.dat";
+    private static final int BASELINE_FORMAT_VERSION = 1;
+
+    private ScalingDataset[] datasets;
+    private ZipPackOptions options;
+    private int tolerance;
+
+    /**
+     * Creates a harness for the default datasets: many small entries (just under and just over
+     * the entries limit), big files, a deep tree and long entry names.
+     *
+     * @param scale - multiplier of the datasets size, 1 is the smallest one.
+     */
+    public ScalingHarness(int scale) {
+        this(new ScalingDataset[] {
+                ScalingDataset.manyEntriesUnderLimit(),
+                ScalingDataset.manyEntries(scale),
+                ScalingDataset.bigFiles(scale),
+                ScalingDataset.deepTree(),
+                ScalingDataset.longNames(scale)
+        }, new ZipPackOptions());
+    }
+
+    public ScalingHarness(ScalingDataset[] datasets, ZipPackOptions options) {
+        this.datasets  = datasets;
+        this.options   = options;
+        this.tolerance = DEFAULT_TOLERANCE;
+    }
+
+    public void setTolerance(int tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Runs all the datasets one by one.
+     *
+     * @return human readable report, regressions are marked with "REGRESSION".
+     */
+    public String run() throws IOException {
+        IOUtils.createDirIncludingAncestors(WORK_DIR);
+
+        Hashtable baseline = loadBaseline();
+        ScalingResult[] results = new ScalingResult[datasets.length];
+
+        StringBuffer report = new StringBuffer();
+        int regressions = 0;
+        int newResults = 0;
+
+        for (int i = 0; i < datasets.length; i++) {
+            results[i] = run(datasets[i]);
+            report.append(results[i]).append('\n');
+
+            ScalingResult base = (ScalingResult) baseline.get(results[i].datasetName);
+            if (base == null) {
+                baseline.put(results[i].datasetName, results[i]);
+                newResults++;
+            } else {
+                String regression = compare(base, results[i]);
+                if (regression != null) {
+                    report.append("  REGRESSION: ").append(regression).append('\n');
+                    regressions++;
+                }
+            }
+        }
+
+        if (newResults > 0) {
+            saveBaseline(baseline);
+        }
+
+        report.append(regressions).append(" regression(s)");
+        if (newResults > 0) {
+            report.append(", ").append(newResults).append(" result(s) saved to the baseline");
+        }
+        report.append('.');
+
+        return report.toString();
+    }
+
+    private ScalingResult run(ScalingDataset dataset) throws IOException {
+        final String dirUrl = WORK_DIR + dataset.getName() + "/";
+        final String zipUrl = WORK_DIR + dataset.getName() + ".zip";
+
+        dataset.prepare(dirUrl);
+        if (IOUtils.isPresent(zipUrl)) {
+            IOUtils.delete(zipUrl);
+        }
+
+        ScalingResult result = new ScalingResult(dataset.getName());
+
+        HeapSampler sampler = new HeapSampler();
+        sampler.startSampling();
+        final long start = System.currentTimeMillis();
+        try {
+            dataset.pack(dirUrl, zipUrl, options);
+        } catch (Throwable e) {
+            // e.g. OutOfMemoryError is a result worth reporting as well
+            result.failure = e.toString();
+        } finally {
+            result.packTime = System.currentTimeMillis() - start;
+            result.peakHeap = sampler.stopSampling();
+        }
+
+        if (result.failure == null) {
+            try {
+                ZipVerificationResult verification = ZipVerifier.verify(zipUrl);
+                result.valid        = verification.isValid();
+                result.entriesCount = verification.getEntriesCount();
+                String[] errors = verification.getErrors();
+                if (errors.length > 0) {
+                    result.failure = errors[0];
+                }
+                result.outputSize = getFileSize(zipUrl);
+            } catch (IOException e) {
+                // e.g. the archive can not be read at all, it is an invalid output, not a reason to stop
+                result.failure = e.toString();
+            }
+        }
+
+        return result;
+    }
+
+    // null if current is not worse than the base
+    private String compare(ScalingResult base, ScalingResult current) {
+        StringBuffer sb = new StringBuffer();
+
+        if (base.valid && !current.valid) {
+            sb.append("output is not valid anymore; ");
+        }
+        if (exceeds(current.packTime, base.packTime)) {
+            sb.append("pack time ").append(base.packTime).append(" -> ").append(current.packTime).append(" ms; ");
+        }
+        if (exceeds(current.peakHeap, base.peakHeap)) {
+            sb.append("peak heap ").append(base.peakHeap / 1024).append(" -> ")
+              .append(current.peakHeap / 1024).append(" KB; ");
+        }
+
+        return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private boolean exceeds(long current, long base) {
+        return current * 100 > base * (100 + tolerance);
+    }
+
+    private static Hashtable loadBaseline() {
+        Hashtable baseline = new Hashtable();
+        try {
+            if (!IOUtils.isPresent(BASELINE_FILE)) {
+                return baseline;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(IOUtils.getFileData(BASELINE_FILE)));
+            if (in.readInt() != BASELINE_FORMAT_VERSION) {
+                return baseline;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                ScalingResult result = ScalingResult.readFrom(in);
+                baseline.put(result.datasetName, result);
+            }
+        } catch (IOException e) {
+            // corrupted baseline, start over
+            baseline.clear();
+        }
+        return baseline;
+    }
+
+    private static void saveBaseline(Hashtable baseline) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BASELINE_FORMAT_VERSION);
+        out.writeInt(baseline.size());
+        for (Enumeration e = baseline.elements(); e.hasMoreElements(); ) {
+            ((ScalingResult) e.nextElement()).writeTo(out);
+        }
+        out.flush();
+        IOUtils.saveDataToFile(BASELINE_FILE, bytes.toByteArray());
+    }
+
+    private static long getFileSize(String url) throws IOException {
+        FileConnection fc = null;
+        try {
+            fc = (FileConnection) Connector.open(url, Connector.READ);
+            return fc.fileSize();
+        } finally {
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+}
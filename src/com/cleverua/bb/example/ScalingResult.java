@@ -0,0 +1,55 @@
+package com.cleverua.bb.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Measurements of a single {@link ScalingDataset} run.
+ */
+public class ScalingResult {
+
+    String datasetName;
+    long packTime;     // ms
+    long peakHeap;     // bytes
+    long outputSize;   // bytes
+    int entriesCount;
+    boolean valid;
+    String failure;    // pack failure or the first verification error, null if none
+
+    ScalingResult(String datasetName) {
+        this.datasetName = datasetName;
+    }
+
+    static ScalingResult readFrom(DataInputStream in) throws IOException {
+        ScalingResult r = new ScalingResult(in.readUTF());
+        r.packTime     = in.readLong();
+        r.peakHeap     = in.readLong();
+        r.outputSize   = in.readLong();
+        r.entriesCount = in.readInt();
+        r.valid        = in.readBoolean();
+        return r;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(datasetName);
+        out.writeLong(packTime);
+        out.writeLong(peakHeap);
+        out.writeLong(outputSize);
+        out.writeInt(entriesCount);
+        out.writeBoolean(valid);
+    }
+
+    public String toString() {
+        StringBuffer sb = new StringBuffer(datasetName);
+        sb.append(": ").append(entriesCount).append(" entries, ")
+          .append(packTime).append(" ms, peak heap ")
+          .append(peakHeap / 1024).append(" KB, output ")
+          .append(outputSize / 1024).append(" KB, ")
+          .append(valid ? "valid" : "INVALID");
+        if (failure != null) {
+            sb.append(" (").append(failure).append(')');
+        }
+        return sb.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.cleverua.bb.utils;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -187,7 +188,7 @@ public class IOUtils {
             fc = (FileConnection) Connector.open(url);
             in = fc.openInputStream();
             byte[] data = new byte[(int) fc.fileSize()];
-            in.read(data);
+            readFully(in, data, 0, data.length);
             return data;
         } finally {
             safelyCloseStream(in);
@@ -195,6 +196,75 @@ public class IOUtils {
         }
     }
 
+    /**
+     * Reads exactly <code>len</code> bytes from the stream.
+     * Unlike a single <code>read()</code> call it never returns less data than requested.
+     *
+     * @param in - stream to read from.
+     * @param data - array to put the data to.
+     * @param off - offset in the <code>data</code> array.
+     * @param len - number of bytes to read.
+     * @throws EOFException if the stream ends before <code>len</code> bytes are read.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void readFully(InputStream in, byte[] data, int off, int len) throws IOException {
+        while (len > 0) {
+            int count = in.read(data, off, len);
+            if (count < 0) {
+                throw new EOFException();
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Skips exactly <code>n</code> bytes of the stream.
+     * Unlike a single <code>skip()</code> call it never skips less data than requested.
+     *
+     * @param in - stream to skip data of.
+     * @param n - number of bytes to skip.
+     * @throws EOFException if the stream ends before <code>n</code> bytes are skipped.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long count = in.skip(n);
+            if (count <= 0) {
+                // skip() may give up before the end of stream, read() tells for sure
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                count = 1;
+            }
+            n -= count;
+        }
+    }
+
+    /**
+     * Deletes the file or the empty directory corresponding to passed <code>url</code> parameter.
+     * If the target does not exist, then the method does nothing.
+     *
+     * @param url - url of the file or directory to delete.
+     * @throws IOException
+     * <ul>
+     * <li>if the <code>url</code> is invalid.</li>
+     * <li>if the target is a directory that is not empty, the target is not accessible,
+     * or an unspecified error occurs preventing deletion of the target.</li>
+     * </ul>
+     */
+    public static void delete(String url) throws IOException {
+        FileConnection fc = null;
+        try {
+            fc = (FileConnection) Connector.open(url);
+            if (fc.exists()) {
+                fc.delete();
+            }
+        } finally {
+            safelyCloseStream(fc);
+        }
+    }
+
     /**
      * Creates a directory corresponding to passed <code>url</code> parameter. 
      * Directories in the specified <code>url</code> are not recursively created and 
@@ -269,6 +339,22 @@ public class IOUtils {
         }
     }
 
+    /**
+     * @param url - target path to check, e.g. <code>"file:///SDCard/my_file.txt"</code>.
+     * @return The time the target was last modified at, in milliseconds since the epoch,
+     * or 0 if the time can not be determined.
+     * @throws IOException if the <code>url</code> is invalid.
+     */
+    public static long getLastModified(String url) throws IOException {
+        FileConnection fc = null;
+        try {
+            fc = (FileConnection) Connector.open(url, Connector.READ);
+            return fc.lastModified();
+        } finally {
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+
     /**
      * If user enables SDCard Encryption, then files may get the ".rem" extension.
      * To get "clean" file url we may use this method. We need a clean url to pass
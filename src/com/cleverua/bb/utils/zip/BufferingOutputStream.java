@@ -0,0 +1,61 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Collects small writes in the given buffer, so the underlying stream 
+ * gets the data in big chunks only.
+ */
+class BufferingOutputStream extends OutputStream {
+
+    private OutputStream out;
+    private byte[] buffer;
+    private int count;
+
+    BufferingOutputStream(OutputStream out, byte[] buffer) {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // no point in copying big chunks
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
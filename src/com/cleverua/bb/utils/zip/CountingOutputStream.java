@@ -0,0 +1,41 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts bytes written to the underlying stream.
+ * 
+ * <p>
+ * Closing or flushing this stream does not close or flush the underlying one, 
+ * so codec streams may be closed to finish an entry data (or flushed at 
+ * reset points) while the archive stream stays open and buffered.
+ * </p>
+ */
+class CountingOutputStream extends OutputStream {
+
+    private OutputStream out;
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    public void close() {
+        // the underlying stream is not ours to close
+    }
+
+    long getCount() {
+        return count;
+    }
+}
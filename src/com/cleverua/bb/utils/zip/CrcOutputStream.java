@@ -0,0 +1,49 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import net.rim.device.api.util.CRC32;
+
+/**
+ * Calculates CRC-32 and size of the data passing through to the underlying stream.
+ */
+class CrcOutputStream extends OutputStream {
+
+    private OutputStream out;
+    private int crc;
+    private long count;
+
+    CrcOutputStream(OutputStream out) {
+        this.out = out;
+        this.crc = CRC32.INITIAL_VALUE;
+    }
+
+    public void write(int b) throws IOException {
+        out.write(b);
+        crc = CRC32.update(crc, b);
+        count++;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        crc = CRC32.update(crc, b, off, len);
+        count += len;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    int getCRC32() {
+        return crc ^ 0xffffffff;
+    }
+
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,43 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.rim.device.api.compress.ZLibInputStream;
+import net.rim.device.api.compress.ZLibOutputStream;
+
+/**
+ * DEFLATE compression backed by the platform zlib implementation.
+ * ZIP entries hold raw deflate data, so zlib streams are used with no header.
+ */
+class DeflateCodec implements ZipCodec {
+
+    private static final int VERSION_FOR_EXTRACT = 20;
+    private static final int MAX_WINDOW_BITS     = 15;
+
+    private int level;
+
+    DeflateCodec(int level) {
+        if (level < ZipCodecs.DEFLATE_LEVEL_FASTEST || level > ZipCodecs.DEFLATE_LEVEL_BEST) {
+            throw new IllegalArgumentException("Invalid deflate level: " + level);
+        }
+        this.level = level;
+    }
+
+    public int getMethod() {
+        return ZipCodecs.METHOD_DEFLATED;
+    }
+
+    public int getVersionForExtract() {
+        return VERSION_FOR_EXTRACT;
+    }
+
+    public OutputStream createCompressingStream(OutputStream out) throws IOException {
+        return new ZLibOutputStream(out, true, MAX_WINDOW_BITS, level);
+    }
+
+    public InputStream createDecompressingStream(InputStream in) throws IOException {
+        return new ZLibInputStream(in, true);
+    }
+}
@@ -0,0 +1,63 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.cleverua.bb.utils.IOUtils;
+
+/**
+ * Gives access to the next <code>limit</code> bytes of the underlying stream only, 
+ * so a decompressor reading ahead can not go past an entry data.
+ * 
+ * <p>
+ * Closing this stream does not close the underlying one.
+ * </p>
+ */
+class LimitedInputStream extends InputStream {
+
+    private InputStream in;
+    private long remaining;
+
+    LimitedInputStream(InputStream in, long limit) {
+        this.in = in;
+        this.remaining = limit;
+    }
+
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = in.read(b, off, (int) Math.min(len, remaining));
+        if (count > 0) {
+            remaining -= count;
+        }
+        return count;
+    }
+
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    public void close() {
+        // the underlying stream is not ours to close
+    }
+
+    /**
+     * Skips the rest of the limited data, so the underlying stream is positioned right after it.
+     */
+    void skipRemaining() throws IOException {
+        IOUtils.skipFully(in, remaining);
+        remaining = 0;
+    }
+}
@@ -0,0 +1,163 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * MD5 message digest (RFC 1321).
+ *
+ * <p>
+ * The platform MD5 lives in the RIM Crypto API, which requires the application to be signed
+ * for it, so the packer has its own implementation. MD5 is only used to tell blocks apart
+ * here, it is not meant for any security purpose.
+ * </p>
+ */
+class MD5 {
+
+    public static final int DIGEST_LENGTH = 16;
+
+    private static final int[] SHIFTS = {
+        7, 12, 17, 22,
+        5,  9, 14, 20,
+        4, 11, 16, 23,
+        6, 10, 15, 21
+    };
+
+    private static final int[] CONSTANTS = {
+        0xd76aa478, 0xe8c7b756, 0x242070db, 0xc1bdceee,
+        0xf57c0faf, 0x4787c62a, 0xa8304613, 0xfd469501,
+        0x698098d8, 0x8b44f7af, 0xffff5bb1, 0x895cd7be,
+        0x6b901122, 0xfd987193, 0xa679438e, 0x49b40821,
+        0xf61e2562, 0xc040b340, 0x265e5a51, 0xe9b6c7aa,
+        0xd62f105d, 0x02441453, 0xd8a1e681, 0xe7d3fbc8,
+        0x21e1cde6, 0xc33707d6, 0xf4d50d87, 0x455a14ed,
+        0xa9e3e905, 0xfcefa3f8, 0x676f02d9, 0x8d2a4c8a,
+        0xfffa3942, 0x8771f681, 0x6d9d6122, 0xfde5380c,
+        0xa4beea44, 0x4bdecfa9, 0xf6bb4b60, 0xbebfbc70,
+        0x289b7ec6, 0xeaa127fa, 0xd4ef3085, 0x04881d05,
+        0xd9d4d039, 0xe6db99e5, 0x1fa27cf8, 0xc4ac5665,
+        0xf4292244, 0x432aff97, 0xab9423a7, 0xfc93a039,
+        0x655b59c3, 0x8f0ccc92, 0xffeff47d, 0x85845dd1,
+        0x6fa87e4f, 0xfe2ce6e0, 0xa3014314, 0x4e0811a1,
+        0xf7537e82, 0xbd3af235, 0x2ad7d2bb, 0xeb86d391
+    };
+
+    private static final int BLOCK_SIZE = 64;
+
+    private int[] state = new int[4];
+    private int[] words = new int[16];
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private long length; // bytes digested so far
+
+    MD5() {
+        reset();
+    }
+
+    void reset() {
+        state[0] = 0x67452301;
+        state[1] = 0xefcdab89;
+        state[2] = 0x98badcfe;
+        state[3] = 0x10325476;
+        blockLength = 0;
+        length = 0;
+    }
+
+    void update(byte[] data, int off, int len) {
+        length += len;
+
+        if (blockLength > 0) {
+            final int count = Math.min(len, BLOCK_SIZE - blockLength);
+            System.arraycopy(data, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength < BLOCK_SIZE) {
+                return;
+            }
+            transform(block, 0);
+            blockLength = 0;
+        }
+
+        while (len >= BLOCK_SIZE) {
+            transform(data, off);
+            off += BLOCK_SIZE;
+            len -= BLOCK_SIZE;
+        }
+
+        System.arraycopy(data, off, block, 0, len);
+        blockLength = len;
+    }
+
+    /**
+     * Finishes the digest and resets the state, so the instance may be reused.
+     *
+     * @return {@link #DIGEST_LENGTH} bytes of the digest.
+     */
+    byte[] getDigest() {
+        final long bits = length << 3;
+
+        // padding: 0x80, zeros up to 56 bytes of the last block, then the length in bits
+        byte[] padding = new byte[(blockLength < 56 ? 56 : 120) - blockLength + 8];
+        padding[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) {
+            padding[padding.length - 8 + i] = (byte) (bits >>> (i * 8));
+        }
+        update(padding, 0, padding.length);
+
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            digest[i] = (byte) (state[i >> 2] >>> ((i & 3) * 8));
+        }
+
+        reset();
+        return digest;
+    }
+
+    private void transform(byte[] data, int off) {
+        for (int i = 0; i < 16; i++) {
+            final int p = off + i * 4;
+            words[i] = (data[p] & 0xff)
+                    | (data[p + 1] & 0xff) << 8
+                    | (data[p + 2] & 0xff) << 16
+                    | (data[p + 3] & 0xff) << 24;
+        }
+
+        int a = state[0];
+        int b = state[1];
+        int c = state[2];
+        int d = state[3];
+
+        for (int i = 0; i < 64; i++) {
+            int f;
+            int g;
+            switch (i >> 4) {
+                case 0:
+                    f = (b & c) | (~b & d);
+                    g = i;
+                    break;
+                case 1:
+                    f = (d & b) | (~d & c);
+                    g = (5 * i + 1) & 15;
+                    break;
+                case 2:
+                    f = b ^ c ^ d;
+                    g = (3 * i + 5) & 15;
+                    break;
+                default:
+                    f = c ^ (b | ~d);
+                    g = (7 * i) & 15;
+                    break;
+            }
+
+            final int t = a + f + CONSTANTS[i] + words[g];
+            final int s = SHIFTS[((i >> 4) << 2) | (i & 3)];
+            a = d;
+            d = c;
+            c = b;
+            b += (t << s) | (t >>> (32 - s));
+        }
+
+        state[0] += a;
+        state[1] += b;
+        state[2] += c;
+        state[3] += d;
+    }
+}
@@ -0,0 +1,82 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Flushes the underlying compressing stream at content-defined points of the data,
+ * the way "gzip --rsyncable" does.
+ * 
+ * <p>
+ * A point is picked where a gear rolling hash has its high bits zero. Every byte shifts 
+ * the hash left by one bit, so its high bits depend on the last 32 bytes only and 
+ * the same data gets the same points no matter what precedes it. 
+ * Flushing there ends the current compressed block, so after a local edit the compressed 
+ * output gets back in sync with the one of the original data shortly after the edit, 
+ * instead of differing till the end of the entry.
+ * </p>
+ */
+class ResetPointOutputStream extends OutputStream {
+
+    private static final int MIN_DISTANCE = 1024;
+    private static final int HASH_SHIFT   = 32 - 13; // 13 high bits, 8 KB between points on average
+
+    private static final int[] GEAR = new int[256];
+
+    static {
+        // fixed pseudo-random table, it must never change or the points move
+        int seed = 0x2545F491;
+        for (int i = 0; i < GEAR.length; i++) {
+            seed = seed * 1103515245 + 12345;
+            GEAR[i] = seed;
+        }
+    }
+
+    private OutputStream out;
+    private int hash;
+    private int distance;
+
+    ResetPointOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (update(b)) {
+            out.flush();
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (update(b[i])) {
+                out.write(b, start, i + 1 - start);
+                out.flush();
+                start = i + 1;
+            }
+        }
+        out.write(b, start, end - start);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    // returns true if a reset point is right after the byte
+    private boolean update(int b) {
+        hash = (hash << 1) + GEAR[b & 0xff];
+        distance++;
+        // low bits depend on the last few bytes only, so they do not make good points on repetitive data
+        if (distance >= MIN_DISTANCE && (hash >>> HASH_SHIFT) == 0) {
+            distance = 0;
+            return true;
+        }
+        return false;
+    }
+}
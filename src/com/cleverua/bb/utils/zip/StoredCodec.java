@@ -0,0 +1,28 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * No compression at all: data is stored as is.
+ */
+class StoredCodec implements ZipCodec {
+
+    private static final int VERSION_FOR_EXTRACT = 10;
+
+    public int getMethod() {
+        return ZipCodecs.METHOD_STORED;
+    }
+
+    public int getVersionForExtract() {
+        return VERSION_FOR_EXTRACT;
+    }
+
+    public OutputStream createCompressingStream(OutputStream out) {
+        return out;
+    }
+
+    public InputStream createDecompressingStream(InputStream in) {
+        return in;
+    }
+}
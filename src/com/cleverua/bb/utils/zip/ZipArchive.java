@@ -1,18 +1,37 @@
 package com.cleverua.bb.utils.zip;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Vector;
 
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import net.rim.device.api.util.CRC32;
+
 import com.cleverua.bb.utils.IOUtils;
 
 public class ZipArchive {
 
+    private FileConnection fc;
     private OutputStream out;
     private Vector entries;
 
+    private ZipBufferPool pool;
+    private byte[][] buffers;
+    private byte[] readBuffer;
+
+    private boolean resetPoints;
+
+    // set when writing of an entry fails halfway, the output is inconsistent since then
+    private boolean broken;
+
     private static final int CENTRAL_DIR_END_SIGNATURE = 0x06054b50;
     private static final int CENTRAL_DIR_FILE_HEADER_CONSTANT_SIZE = 46;
+    private static final int LOCAL_HEADER_CONSTANT_SIZE = 30;
+    private static final int LOCAL_HEADER_CRC32_OFFSET = 14;
+    private static final long MAX_ZIP32_VALUE = 0xffffffffL;
 
     private int centralDirEndSignature;
     private int thisDiskNumber;
@@ -23,9 +42,49 @@ public class ZipArchive {
     private int centralDirOffsetRespectingStartDiskNumber;
     private int zipFileCommentLength;
 
-    ZipArchive(OutputStream out) {
-        this.out = out;
-        entries  = new Vector();
+    // offset of the next local file header, i.e. the number of bytes written so far
+    private long offset;
+
+    /**
+     * Creates an archive written from the beginning of the file.
+     *
+     * @param fc - connection to the existing output file, it is not closed by the archive.
+     * @param pool - pool to take the IO buffers from, waits there if the pool budget is exhausted.
+     */
+    ZipArchive(FileConnection fc, ZipBufferPool pool) throws IOException {
+        this(fc, new Vector(), 0, pool);
+    }
+
+    /**
+     * Creates an archive that continues a previously interrupted one.
+     *
+     * @param fc - connection to the existing output file, it is not closed by the archive.
+     * @param entries - entries that are already present in the output.
+     * @param offset - number of bytes the already present entries occupy,
+     * the archive is written from this offset on.
+     * @param pool - pool to take the IO buffers from, waits there if the pool budget is exhausted.
+     */
+    ZipArchive(FileConnection fc, Vector entries, long offset, ZipBufferPool pool) throws IOException {
+        // take all buffers at once, so concurrent archives can not block each other holding a part of them,
+        // and before the output is opened, so there is nothing to close if the wait gets interrupted
+        this.buffers    = pool.acquire(ZipBufferPool.BUFFERS_PER_OPERATION);
+        this.pool       = pool;
+
+        boolean opened = false;
+        try {
+            this.out = new BufferingOutputStream(fc.openOutputStream(offset), buffers[0]);
+            opened = true;
+        } finally {
+            if (!opened) {
+                pool.release(buffers);
+                buffers = null;
+            }
+        }
+
+        this.fc         = fc;
+        this.readBuffer = buffers[1];
+        this.entries    = entries;
+        this.offset     = offset;
 
         centralDirEndSignature                    = CENTRAL_DIR_END_SIGNATURE;
         thisDiskNumber                            = 0;
@@ -37,25 +96,331 @@ public class ZipArchive {
         zipFileCommentLength                      = 0;
     }
 
+    /**
+     * Adds an entry with the data known upfront.
+     * 
+     * @param entry - entry created with {@link ZipArchiveEntry#ZipArchiveEntry(String, byte[])}.
+     * @throws IllegalStateException if the archive is {@link #isBroken() broken}.
+     */
     void addEntry(ZipArchiveEntry entry) throws IOException {
-        // write local file header for the entry
-        writeLe4Bytes(entry.getLocalFileHeaderSignature());
-        writeCommonHeadersData(entry);
-        out.write(entry.getFileName().getBytes());
-        out.write(entry.getContent());
+        ensureNotBroken();
+        boolean added = false;
+        try {
+            writeLocalHeader(entry);
+            out.write(entry.getContent());
+            added = true;
+        } finally {
+            broken = !added;
+        }
 
         // let JVM know it can release the memory resource
         entry.nullifyContent();
 
         entries.addElement(entry);
+        offset += entry.getEntrySize();
+    }
+
+    /**
+     * Adds a streamed entry with the data of a file.
+     * 
+     * <p>
+     * A file is read once. A stored file that fits the read buffer gets its CRC and size 
+     * into the local header right away, a bigger one gets them patched in once its data is written. 
+     * If a compressed file turns out not to shrink, its entry is rewritten as a stored one.
+     * </p>
+     * 
+     * @param entry - entry created with {@link ZipArchiveEntry#ZipArchiveEntry(String, ZipCodec)}.
+     * @param fileUrl - url of the file.
+     * @throws IllegalStateException if the archive is {@link #isBroken() broken}.
+     */
+    void addEntry(ZipArchiveEntry entry, String fileUrl) throws IOException {
+        ensureNotBroken();
+        boolean added = false;
+        try {
+            if (entry.getCompressionMethod() == ZipCodecs.METHOD_STORED) {
+                addStoredFile(entry, fileUrl);
+            } else {
+                addCompressedFile(entry, fileUrl);
+            }
+            added = true;
+        } finally {
+            broken = !added;
+        }
+    }
+
+    /**
+     * Adds a streamed entry with the data read from the stream until its end.
+     * 
+     * @param entry - entry created with {@link ZipArchiveEntry#ZipArchiveEntry(String, ZipCodec)}.
+     * @param in - source of the entry data, it is not closed by this method.
+     * @throws IllegalStateException if the archive is {@link #isBroken() broken}.
+     */
+    void addEntry(ZipArchiveEntry entry, InputStream in) throws IOException {
+        addEntry(entry, getCopyingProducer(in));
+    }
+
+    /**
+     * Adds a streamed entry: the entry data is compressed and written to the archive 
+     * as the <code>producer</code> generates it. CRC and sizes of compressed data follow it 
+     * in a data descriptor, for stored data they are patched into the already written local header.
+     * 
+     * @param entry - entry created with {@link ZipArchiveEntry#ZipArchiveEntry(String, ZipCodec)}.
+     * @param producer - source of the entry data.
+     * @throws IllegalStateException if the archive is {@link #isBroken() broken}.
+     */
+    void addEntry(ZipArchiveEntry entry, ZipEntryProducer producer) throws IOException {
+        ensureNotBroken();
+        boolean added = false;
+        try {
+            addProducedEntry(entry, producer);
+            added = true;
+        } finally {
+            broken = !added;
+        }
+    }
+
+    private void addProducedEntry(ZipArchiveEntry entry, ZipEntryProducer producer) throws IOException {
+        // CRC and sizes are zero at this point
+        writeLocalHeader(entry);
+
+        CountingOutputStream compressed = new CountingOutputStream(out);
+        OutputStream compressing = entry.getCodec().createCompressingStream(compressed);
+        if (resetPoints && entry.getCompressionMethod() != ZipCodecs.METHOD_STORED) {
+            compressing = new ResetPointOutputStream(compressing);
+        }
+        CrcOutputStream data = new CrcOutputStream(compressing);
+        boolean finished = false;
+        try {
+            producer.produce(data);
+            data.close(); // finishes the compressed data, the archive stream stays open
+            finished = true;
+        } finally {
+            if (!finished) {
+                IOUtils.safelyCloseStream(data);
+            }
+        }
+
+        ensureFitsZip32(Math.max(compressed.getCount(), data.getCount()), 
+                "Entry is too large for ZIP: " + entry.getFileName());
+        entry.setStreamedData(data.getCRC32(), compressed.getCount(), data.getCount());
+
+        if (entry.hasDataDescriptor()) {
+            writeLe4Bytes(entry.getDataDescriptorSignature());
+            writeLe4Bytes(entry.getCRC32());
+            writeLe4Bytes(entry.getCompressedSize());
+            writeLe4Bytes(entry.getUncompressedSize());
+        }
+
+        entry.nullifyContent();
+
+        entries.addElement(entry);
+        offset += entry.getEntrySize();
+
+        if (!entry.hasDataDescriptor()) {
+            patchLocalHeader(entry);
+        }
+    }
+
+    private void addCompressedFile(ZipArchiveEntry entry, String fileUrl) throws IOException {
+        final long entryOffset = offset;
+
+        FileConnection fc = null;
+        InputStream in = null;
+
+        try {
+            fc = (FileConnection) Connector.open(fileUrl, Connector.READ);
+            in = fc.openInputStream();
+            addProducedEntry(entry, getCopyingProducer(in));
+        } finally {
+            IOUtils.safelyCloseStream(in);
+            IOUtils.safelyCloseStream(fc);
+        }
+
+        if (entry.getCompressedSize() >= entry.getUncompressedSize()) {
+            // compression does not pay off (e.g. the file is an image), store the file instead
+            entries.removeElementAt(entries.size() - 1);
+            rewind(entryOffset);
+            entry.fallBackToStored();
+            addStoredFile(entry, fileUrl);
+        }
+    }
+
+    private void addStoredFile(ZipArchiveEntry entry, String fileUrl) throws IOException {
+        FileConnection fc = null;
+        InputStream in = null;
+
+        try {
+            fc = (FileConnection) Connector.open(fileUrl, Connector.READ);
+            in = fc.openInputStream();
+
+            int size = 0;
+            int count = 0;
+            while (size < readBuffer.length && (count = in.read(readBuffer, size, readBuffer.length - size)) != -1) {
+                size += count;
+            }
+
+            if (count == -1) {
+                // the whole file is in the buffer, the header may have its CRC and size upfront
+                final int crc = CRC32.update(CRC32.INITIAL_VALUE, readBuffer, 0, size) ^ 0xffffffff;
+                entry.setStreamedData(crc, size, size);
+                writeLocalHeader(entry);
+                out.write(readBuffer, 0, size);
+
+                entry.nullifyContent();
+
+                entries.addElement(entry);
+                offset += entry.getEntrySize();
+            } else {
+                addProducedEntry(entry, getCopyingProducer(in, size));
+            }
+
+        } finally {
+            IOUtils.safelyCloseStream(in);
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+
+    private ZipEntryProducer getCopyingProducer(InputStream in) {
+        return getCopyingProducer(in, 0);
+    }
+
+    /**
+     * @param buffered - number of bytes already read from the stream into the read buffer.
+     */
+    private ZipEntryProducer getCopyingProducer(final InputStream in, final int buffered) {
+        return new ZipEntryProducer() {
+            public void produce(OutputStream out) throws IOException {
+                out.write(readBuffer, 0, buffered);
+                int count;
+                while ((count = in.read(readBuffer)) != -1) {
+                    out.write(readBuffer, 0, count);
+                }
+            }
+        };
+    }
+
+    private void writeLocalHeader(ZipArchiveEntry entry) throws IOException {
+        ensureFitsZip32(offset, "Archive is too large for ZIP, entries must start within 4 GB");
+        entry.setLocalHeaderOffset(offset);
+        out.write(getLocalHeader(entry));
+    }
+
+    /**
+     * @return local file header of the entry as it is in the output once the entry is written. 
+     * CRC and sizes of an entry with a data descriptor are zero there.
+     */
+    static byte[] getLocalHeader(ZipArchiveEntry entry) {
+        final boolean hasDataDescriptor = entry.hasDataDescriptor();
+
+        byte[] header = new byte[LOCAL_HEADER_CONSTANT_SIZE + entry.getFileNameLength()];
+        setLe4Bytes(header, 0, entry.getLocalFileHeaderSignature());
+        setLe2Bytes(header, 4, entry.getVersionForExtract());
+        setLe2Bytes(header, 6, entry.getGeneralPurposeBitFlag());
+        setLe2Bytes(header, 8, entry.getCompressionMethod());
+        setLe4Bytes(header, 10, entry.getLastModified());
+        setLe4Bytes(header, LOCAL_HEADER_CRC32_OFFSET, hasDataDescriptor ? 0 : entry.getCRC32());
+        setLe4Bytes(header, 18, hasDataDescriptor ? 0 : entry.getCompressedSize());
+        setLe4Bytes(header, 22, hasDataDescriptor ? 0 : entry.getUncompressedSize());
+        setLe2Bytes(header, 26, entry.getFileNameLength());
+        setLe2Bytes(header, 28, entry.getExtraFieldLength());
+        System.arraycopy(entry.getFileNameBytes(), 0, header, LOCAL_HEADER_CONSTANT_SIZE, entry.getFileNameLength());
+        return header;
+    }
+
+    // writes CRC and sizes known once the data is written into the local header of a stored entry
+    private void patchLocalHeader(ZipArchiveEntry entry) throws IOException {
+        out.close();
+        out = null;
+
+        OutputStream patch = fc.openOutputStream(entry.getLocalHeaderOffset() + LOCAL_HEADER_CRC32_OFFSET);
+        try {
+            byte[] values = new byte[12];
+            setLe4Bytes(values, 0, entry.getCRC32());
+            setLe4Bytes(values, 4, entry.getCompressedSize());
+            setLe4Bytes(values, 8, entry.getUncompressedSize());
+            patch.write(values);
+            patch.flush();
+        } finally {
+            IOUtils.safelyCloseStream(patch);
+        }
+
+        out = new BufferingOutputStream(fc.openOutputStream(offset), buffers[0]);
+    }
+
+    // sizes and offsets are unsigned 32 bit fields, they would silently wrap past 4 GB
+    private static void ensureFitsZip32(long value, String message) throws IOException {
+        if (value > MAX_ZIP32_VALUE) {
+            throw new IOException(message);
+        }
+    }
+
+    // drops everything written from the given offset on
+    private void rewind(long toOffset) throws IOException {
+        out.close();
+        out = null;
+
+        fc.truncate(toOffset);
+        offset = toOffset;
+
+        out = new BufferingOutputStream(fc.openOutputStream(offset), buffers[0]);
+    }
+
+    /**
+     * Turns content-defined reset points in compressed entry data on or off, 
+     * see {@link ResetPointOutputStream}. They are off by default.
+     */
+    void setResetPoints(boolean resetPoints) {
+        this.resetPoints = resetPoints;
+    }
+
+    /**
+     * Makes sure everything written so far has reached the underlying stream,
+     * so the current {@link #getOffset() offset} is a consistent entry boundary.
+     */
+    void sync() throws IOException {
+        out.flush();
+    }
+
+    long getOffset() {
+        return offset;
     }
 
+    Vector getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return true if writing of some entry has failed halfway. Such an archive is inconsistent:
+     * its output holds a part of the failed entry, so nothing more may be added to it, 
+     * it must be abandoned.
+     */
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Writes the central directory.
+     * 
+     * @throws IllegalStateException if the archive is {@link #isBroken() broken}.
+     */
     void flush() throws IOException {
+        ensureNotBroken();
+        boolean written = false;
+        try {
+            writeCentralDir();
+            written = true;
+        } finally {
+            broken = !written;
+        }
+    }
 
+    private void writeCentralDir() throws IOException {
         final int entriesSize = entries.size();
 
         centralDirEntriesNumber = entriesSize;
         centralDirEntriesNumberOnThisDisk = entriesSize;
+        ensureFitsZip32(offset, "Archive is too large for ZIP, the central directory must start within 4 GB");
+        centralDirOffsetRespectingStartDiskNumber = (int) offset;
 
         // write central dir data
         for (int i = 0; i < entriesSize; i++) {
@@ -68,11 +433,10 @@ public class ZipArchive {
             writeLe2Bytes(entry.getDiskNumberStart());
             writeLe2Bytes(entry.getInternalFileAttrs());
             writeLe4Bytes(entry.getExternalFileAttrs());
-            writeLe4Bytes(centralDirOffsetRespectingStartDiskNumber); // localHeaderRelativeOffset for the entry
-            out.write(entry.getFileName().getBytes());
+            writeLe4Bytes((int) entry.getLocalHeaderOffset());
+            out.write(entry.getFileNameBytes());
 
             centralDirSize += (CENTRAL_DIR_FILE_HEADER_CONSTANT_SIZE + entry.getFileNameLength());
-            centralDirOffsetRespectingStartDiskNumber += entry.getEntrySize();
         }
 
         writeLe4Bytes(centralDirEndSignature);
@@ -89,6 +453,17 @@ public class ZipArchive {
 
     void close() {
         IOUtils.safelyCloseStream(out);
+        if (buffers != null) {
+            pool.release(buffers);
+            buffers = null;
+            readBuffer = null;
+        }
+    }
+
+    private void ensureNotBroken() {
+        if (broken) {
+            throw new IllegalStateException("Archive is broken by a failed write, it must be abandoned");
+        }
     }
 
     private void writeLe2Bytes(int value) throws IOException {
@@ -101,6 +476,16 @@ public class ZipArchive {
         writeLe2Bytes(value >> 16);
     }
 
+    private static void setLe2Bytes(byte[] b, int off, int value) {
+        b[off]     = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+    }
+
+    private static void setLe4Bytes(byte[] b, int off, int value) {
+        setLe2Bytes(b, off, value);
+        setLe2Bytes(b, off + 2, value >> 16);
+    }
+
     // this data is the same for the local and central file headers
     private void writeCommonHeadersData(ZipArchiveEntry entry) throws IOException {
         writeLe2Bytes(entry.getVersionForExtract());
@@ -1,23 +1,27 @@
 package com.cleverua.bb.utils.zip;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Calendar;
 import java.util.Date;
 
-import com.cleverua.bb.utils.IOUtils;
-
 import net.rim.device.api.util.CRC32;
 
 public class ZipArchiveEntry {
 
     private String fileName;
+    private byte[] fileNameBytes;
     private byte[] content;
+    private ZipCodec codec;
 
     private static final int LOCAL_FILE_HEADER_SIGNATURE     = 0x04034B50;
     private static final int LOCAL_FILE_HEADER_CONSTANT_SIZE = 30;
-    private static final int VERSION_FOR_EXTRACT             = 10;
     private static final int GENERAL_PURPOSE_BIT_FLAG        = 0;
-    private static final int COMPRESSION_METHOD              = 0; // no compression
+    private static final int FLAG_DATA_DESCRIPTOR            = 0x08;
+    private static final int VERSION_FOR_DATA_DESCRIPTOR     = 20;
+    private static final int DATA_DESCRIPTOR_SIGNATURE       = 0x08074B50;
+    private static final int DATA_DESCRIPTOR_SIZE            = 16;
     private static final int EXTRA_FIELD_LENGTH              = 0;
     private static final int CENTRAL_FILE_HEADER_SIGNATURE   = 0x02014B50;
     private static final int VERSION_MADE_BY                 = 20;
@@ -26,6 +30,13 @@ public class ZipArchiveEntry {
     private static final int INTERNAL_FILE_ATTRS             = 0;
     private static final int EXT_FILE_ATTRS_FOR_FILE         = 32;
     private static final int EXT_FILE_ATTRS_FOR_DIR          = 16;
+    private static final int MIN_DOS_TIME                    = (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+    private static final long MIN_DOS_TIME_MILLIS            = 315532800000L;
+
+    /**
+     * Max length of an encoded entry name, the headers keep it in a 16 bit field.
+     */
+    static final int MAX_FILE_NAME_LENGTH = 0xFFFF;
 
     private int localFileHeaderSignature;
     private int versionForExtract;
@@ -37,38 +48,130 @@ public class ZipArchiveEntry {
     private int uncompressedSize;
     private int fileNameLength;
     private int extraFieldLength;
-    private int entrySize;
+    private long entrySize;
     private int centralFileHeaderSignature;
     private int versionMadeBy;
     private int fileCommentLength;
     private int diskNumberStart;
     private int internalFileAttrs;
     private int externalFileAttrs;
-
-    ZipArchiveEntry(String fileName, String fullPath) throws IOException {
-        this.fileName = fileName;
-        this.lastModified = getCurrentDosTime();
-
-        if (IOUtils.isDirectory(fullPath)) {
+    private int localHeaderOffset;
+
+    /**
+     * Creates a stored entry whose data is known upfront. Data to be compressed
+     * goes through a {@link #ZipArchiveEntry(String, ZipCodec) streamed} entry instead,
+     * so the compressed copy of the data is never held in memory.
+     *
+     * @param fileName - entry name, directory names end with "/".
+     * @param data - entry data or null for a directory entry.
+     */
+    ZipArchiveEntry(String fileName, byte[] data) {
+        initHeaderConstants();
+        setFileName(fileName);
+        this.lastModified = toDosTime(System.currentTimeMillis());
+
+        if (data == null) {
             externalFileAttrs = EXT_FILE_ATTRS_FOR_DIR;
             content = new byte[0];
             crc32 = 0;
         } else {
             externalFileAttrs = EXT_FILE_ATTRS_FOR_FILE;
-            content = IOUtils.getFileData(fullPath);
+            content = data;
             crc32 = CRC32.update(CRC32.INITIAL_VALUE, content) ^ 0xffffffff;
         }
 
         uncompressedSize = content.length;
         compressedSize = uncompressedSize;
-        fileNameLength = this.fileName.length();
 
-        entrySize = LOCAL_FILE_HEADER_CONSTANT_SIZE + fileNameLength + compressedSize;
+        compressionMethod = ZipCodecs.STORED.getMethod();
+        versionForExtract = ZipCodecs.STORED.getVersionForExtract();
+
+        entrySize = LOCAL_FILE_HEADER_CONSTANT_SIZE + fileNameLength + (compressedSize & 0xffffffffL);
+    }
+
+    /**
+     * Creates an entry whose data is streamed right into the archive,
+     * see {@link ZipArchive#addEntry(ZipArchiveEntry, ZipEntryProducer)}.
+     * CRC and sizes of such an entry are not known until its data is written,
+     * so for compressed data they follow the data in a data descriptor.
+     * Stored data can not have a data descriptor (streaming readers would not find
+     * the end of the data), so the archive puts them into the local header.
+     *
+     * @param fileName - entry name.
+     * @param codec - codec to compress the data with.
+     */
+    ZipArchiveEntry(String fileName, ZipCodec codec) {
+        initHeaderConstants();
+        setFileName(fileName);
+        this.lastModified = toDosTime(System.currentTimeMillis());
+
+        externalFileAttrs = EXT_FILE_ATTRS_FOR_FILE;
+
+        setCodec(codec);
+    }
+
+    private ZipArchiveEntry() {
+        initHeaderConstants();
+    }
+
+    /**
+     * Restores an already packed entry previously saved with {@link #writeTo(DataOutputStream)}.
+     * The restored entry has no content, it only carries the data needed for the central directory.
+     */
+    static ZipArchiveEntry readFrom(DataInputStream in) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry();
+
+        final int nameLength = in.readInt();
+        if (nameLength < 0 || nameLength > MAX_FILE_NAME_LENGTH) {
+            throw new IOException("Invalid entry name length: " + nameLength);
+        }
+        char[] name = new char[nameLength];
+        for (int i = 0; i < nameLength; i++) {
+            name[i] = in.readChar();
+        }
+        try {
+            entry.setFileName(new String(name));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        entry.versionForExtract = in.readInt();
+        entry.generalPurposeBitFlag = in.readInt();
+        entry.compressionMethod = in.readInt();
+        entry.lastModified      = in.readInt();
+        entry.crc32             = in.readInt();
+        entry.compressedSize    = in.readInt();
+        entry.uncompressedSize  = in.readInt();
+        entry.externalFileAttrs = in.readInt();
+        entry.localHeaderOffset = in.readInt();
+
+        entry.entrySize = LOCAL_FILE_HEADER_CONSTANT_SIZE + entry.fileNameLength + (entry.compressedSize & 0xffffffffL);
+        if (entry.hasDataDescriptor()) {
+            entry.entrySize += DATA_DESCRIPTOR_SIZE;
+        }
+
+        return entry;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        // not writeUTF(): its 64 KB limit applies to modified UTF-8, which may be longer than the name in the archive
+        checkFileNameLength(fileNameLength);
+        out.writeInt(fileName.length());
+        out.writeChars(fileName);
+        out.writeInt(versionForExtract);
+        out.writeInt(generalPurposeBitFlag);
+        out.writeInt(compressionMethod);
+        out.writeInt(lastModified);
+        out.writeInt(crc32);
+        out.writeInt(compressedSize);
+        out.writeInt(uncompressedSize);
+        out.writeInt(externalFileAttrs);
+        out.writeInt(localHeaderOffset);
+    }
 
+    private void initHeaderConstants() {
         localFileHeaderSignature    = LOCAL_FILE_HEADER_SIGNATURE;
-        versionForExtract           = VERSION_FOR_EXTRACT;
         generalPurposeBitFlag       = GENERAL_PURPOSE_BIT_FLAG;
-        compressionMethod           = COMPRESSION_METHOD;
         extraFieldLength            = EXTRA_FIELD_LENGTH;
         centralFileHeaderSignature  = CENTRAL_FILE_HEADER_SIGNATURE;
         versionMadeBy               = VERSION_MADE_BY;
@@ -77,8 +180,89 @@ public class ZipArchiveEntry {
         internalFileAttrs           = INTERNAL_FILE_ATTRS;
     }
 
+    private void setFileName(String fileName) {
+        final byte[] fileNameBytes = fileName.getBytes();
+        checkFileNameLength(fileNameBytes.length);
+
+        this.fileName = fileName;
+        this.fileNameBytes = fileNameBytes;
+        this.fileNameLength = fileNameBytes.length;
+    }
+
+    /**
+     * @param fileName - entry name.
+     * @throws IllegalArgumentException if the encoded name does not fit the headers.
+     */
+    static void checkFileName(String fileName) {
+        checkFileNameLength(fileName.getBytes().length);
+    }
+
+    private static void checkFileNameLength(int length) {
+        if (length > MAX_FILE_NAME_LENGTH) {
+            throw new IllegalArgumentException("Entry name is too long: " + length + " bytes, "
+                    + MAX_FILE_NAME_LENGTH + " at most");
+        }
+    }
+
+    /**
+     * Overrides the last modification time, which is the entry creation time by default.
+     *
+     * @param millis - time in milliseconds since the epoch.
+     */
+    void setLastModified(long millis) {
+        // DOS time can not represent anything before 1980, e.g. an unknown (zero) time
+        this.lastModified = millis < MIN_DOS_TIME_MILLIS ? MIN_DOS_TIME : toDosTime(millis);
+    }
+
+    private void setCodec(ZipCodec codec) {
+        this.codec = codec;
+
+        compressionMethod = codec.getMethod();
+        crc32             = 0;
+        compressedSize    = 0;
+        uncompressedSize  = 0;
+        entrySize         = LOCAL_FILE_HEADER_CONSTANT_SIZE + fileNameLength;
+
+        if (compressionMethod == ZipCodecs.METHOD_STORED) {
+            generalPurposeBitFlag = GENERAL_PURPOSE_BIT_FLAG;
+            versionForExtract     = codec.getVersionForExtract();
+        } else {
+            generalPurposeBitFlag = FLAG_DATA_DESCRIPTOR;
+            versionForExtract     = Math.max(codec.getVersionForExtract(), VERSION_FOR_DATA_DESCRIPTOR);
+            entrySize            += DATA_DESCRIPTOR_SIZE;
+        }
+    }
+
+    /**
+     * Turns a streamed entry into a stored one, e.g. when compression of the data does not pay off.
+     * CRC and sizes are reset, the data is to be written again.
+     */
+    void fallBackToStored() {
+        setCodec(ZipCodecs.STORED);
+    }
+
+    /**
+     * Sets CRC and sizes of a streamed entry once its data is written
+     * (or, for a stored file, before that).
+     */
+    void setStreamedData(int crc32, long compressedSize, long uncompressedSize) {
+        this.crc32            = crc32;
+        this.compressedSize   = (int) compressedSize;
+        this.uncompressedSize = (int) uncompressedSize;
+        this.entrySize       += compressedSize;
+    }
+
+    boolean hasDataDescriptor() {
+        return (generalPurposeBitFlag & FLAG_DATA_DESCRIPTOR) != 0;
+    }
+
+    int getDataDescriptorSignature() {
+        return DATA_DESCRIPTOR_SIGNATURE;
+    }
+
     void nullifyContent() {
         content = null;
+        codec = null;
     }
 
     int getLocalFileHeaderSignature() {
@@ -125,11 +309,19 @@ public class ZipArchiveEntry {
         return fileName;
     }
 
+    byte[] getFileNameBytes() {
+        return fileNameBytes;
+    }
+
     byte[] getContent() {
         return content;
     }
 
-    int getEntrySize() {
+    ZipCodec getCodec() {
+        return codec;
+    }
+
+    long getEntrySize() {
         return entrySize;
     }
 
@@ -157,10 +349,21 @@ public class ZipArchiveEntry {
         return externalFileAttrs;
     }
 
-    private int getCurrentDosTime() {
+    /**
+     * @return offset of the local header, the ZIP field is unsigned.
+     */
+    long getLocalHeaderOffset() {
+        return localHeaderOffset & 0xffffffffL;
+    }
+
+    void setLocalHeaderOffset(long localHeaderOffset) {
+        this.localHeaderOffset = (int) localHeaderOffset;
+    }
+
+    private static int toDosTime(long millis) {
         Calendar cal = Calendar.getInstance();
         synchronized (cal) {
-            cal.setTime(new Date(System.currentTimeMillis()));
+            cal.setTime(new Date(millis));
             int dostime = (cal.get(Calendar.YEAR) - 1980 & 0x7f) << 25
             | (cal.get(Calendar.MONTH) + 1) << 21
             | (cal.get(Calendar.DAY_OF_MONTH)) << 16
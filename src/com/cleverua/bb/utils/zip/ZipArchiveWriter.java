@@ -0,0 +1,275 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import com.cleverua.bb.utils.IOUtils;
+
+/**
+ * ZipArchiveWriter writes a ZIP archive format file entry by entry.
+ * 
+ * <p>
+ * Unlike {@link ZipPacker} it does not require the archive contents to be present 
+ * on the file system: entries may come from byte arrays, input streams or 
+ * {@link ZipEntryProducer producers} generating data on the fly, mixed freely 
+ * with file and directory entries. Streamed entry data goes straight into the archive, 
+ * it is never staged on the file system nor held in memory as a whole.
+ * </p>
+ * 
+ * <p>
+ * Usage:
+ * <pre>
+ * ZipArchiveWriter writer = new ZipArchiveWriter("file:///SDCard/packed.zip");
+ * try {
+ *     writer.addDirectory("logs/");
+ *     writer.addData("logs/today.txt", logBytes);
+ *     writer.addFile("photo.jpg", "file:///SDCard/BlackBerry/pictures/photo.jpg");
+ *     writer.finish();
+ * } finally {
+ *     writer.close();
+ * }
+ * </pre>
+ * </p>
+ * 
+ * <p>
+ * Compressed entries are streamed: they have their CRC and sizes in a data descriptor 
+ * following the data, as the ZIP format allows. Stored entries have them in the local header, 
+ * as streaming readers require: the local header of stored data that does not fit a single 
+ * IO buffer is patched once the data is written, so every source is read once. 
+ * A compressed file that does not shrink is stored instead, compressed stream 
+ * and producer data is kept as is.
+ * </p>
+ * 
+ * <p>
+ * If adding of an entry fails (e.g. a source stream throws an exception), a part of the entry 
+ * is already written, so the archive can not be completed anymore: any further add or {@link #finish()} 
+ * call throws IllegalStateException. Such a writer must be closed and its output discarded.
+ * An entry name longer than 65535 bytes once encoded does not fit the ZIP headers: add methods reject it 
+ * with IllegalArgumentException before anything is written, so the archive stays usable.
+ * </p>
+ * 
+ * <p>
+ * The writer takes its IO buffers from a {@link ZipBufferPool} when created and 
+ * returns them on {@link #close()}.
+ * </p>
+ */
+public class ZipArchiveWriter {
+
+    private FileConnection zipFC;
+    private ZipArchive archive;
+    private ZipCodec codec;
+    private boolean finished;
+
+    /**
+     * Creates a writer for the new archive file. 
+     * If the file already exists - it will be overwritten. 
+     * The IO buffers are taken from the {@link ZipBufferPool#getShared() shared} pool.
+     * 
+     * @param outputFileFullPath - url for the resulting ZIP file.
+     * @throws IOException if the file can not be created.
+     */
+    public ZipArchiveWriter(String outputFileFullPath) throws IOException {
+        this(outputFileFullPath, ZipBufferPool.getShared());
+    }
+
+    /**
+     * Creates a writer for the new archive file. 
+     * If the file already exists - it will be overwritten.
+     * 
+     * @param outputFileFullPath - url for the resulting ZIP file.
+     * @param bufferPool - pool to take the IO buffers from. If its budget is exhausted, 
+     * the constructor waits until other pack operations return their buffers.
+     * @throws IOException if the file can not be created.
+     */
+    public ZipArchiveWriter(String outputFileFullPath, ZipBufferPool bufferPool) throws IOException {
+        try {
+            // a checkpoint left by an interrupted resumable pack can not describe the recreated output
+            IOUtils.delete(outputFileFullPath + ZipCheckpoint.EXTENSION);
+
+            zipFC = (FileConnection) Connector.open(outputFileFullPath);
+
+            if (zipFC.exists()) {
+                zipFC.delete();
+            }
+            zipFC.close();
+
+            zipFC = (FileConnection) Connector.open(outputFileFullPath);
+            zipFC.create();
+
+            archive = new ZipArchive(zipFC, bufferPool);
+        } catch (IOException e) {
+            IOUtils.safelyCloseStream(zipFC);
+            throw e;
+        }
+
+        codec = ZipCodecs.STORED;
+    }
+
+    /**
+     * Sets the codec for entries added with no explicit codec. 
+     * It is {@link ZipCodecs#STORED} by default.
+     * 
+     * @param codec - default codec.
+     * @throws IllegalArgumentException if <code>codec</code> is null.
+     */
+    public void setCodec(ZipCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec is null");
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Adds an empty directory entry.
+     * 
+     * @param entryName - directory name, e.g. "logs/". The trailing "/" is appended if missing.
+     * @throws IOException
+     */
+    public void addDirectory(String entryName) throws IOException {
+        ensureWritable();
+        if (!entryName.endsWith("/")) {
+            entryName += "/";
+        }
+        ZipArchiveEntry.checkFileName(entryName);
+        archive.addEntry(new ZipArchiveEntry(entryName, (byte[]) null));
+    }
+
+    /**
+     * Adds an entry with the data of a file.
+     * 
+     * @param entryName - entry name, e.g. "dir_2/file_2.txt".
+     * @param fileUrl - url of the file to pack.
+     * @throws IOException
+     */
+    public void addFile(String entryName, String fileUrl) throws IOException {
+        addFile(entryName, fileUrl, codec);
+    }
+
+    /**
+     * Adds an entry with the data of a file using the given codec.
+     * 
+     * @param entryName - entry name, e.g. "dir_2/file_2.txt".
+     * @param fileUrl - url of the file to pack.
+     * @param codec - codec to compress the data with.
+     * @throws IOException
+     */
+    public void addFile(String entryName, String fileUrl, ZipCodec codec) throws IOException {
+        ensureWritable();
+        ZipArchiveEntry.checkFileName(entryName);
+        archive.addEntry(new ZipArchiveEntry(entryName, codec), fileUrl);
+    }
+
+    /**
+     * Adds an entry with the given data.
+     * 
+     * @param entryName - entry name, e.g. "logs/today.txt".
+     * @param data - entry data.
+     * @throws IOException
+     */
+    public void addData(String entryName, byte[] data) throws IOException {
+        addData(entryName, data, codec);
+    }
+
+    /**
+     * Adds an entry with the given data using the given codec.
+     * 
+     * @param entryName - entry name, e.g. "logs/today.txt".
+     * @param data - entry data.
+     * @param codec - codec to compress the data with.
+     * @throws IOException
+     */
+    public void addData(String entryName, byte[] data, ZipCodec codec) throws IOException {
+        ensureWritable();
+        ZipArchiveEntry.checkFileName(entryName);
+        if (codec.getMethod() == ZipCodecs.METHOD_STORED) {
+            archive.addEntry(new ZipArchiveEntry(entryName, data));
+        } else {
+            archive.addEntry(new ZipArchiveEntry(entryName, codec), new ByteArrayInputStream(data));
+        }
+    }
+
+    /**
+     * Adds an entry with the data read from the stream until its end. 
+     * The stream is not closed by this method.
+     * 
+     * @param entryName - entry name, e.g. "screenshots/1.png".
+     * @param in - source of the entry data.
+     * @throws IOException
+     */
+    public void addStream(String entryName, InputStream in) throws IOException {
+        addStream(entryName, in, codec);
+    }
+
+    /**
+     * Adds an entry with the data read from the stream until its end using the given codec. 
+     * The stream is not closed by this method.
+     * 
+     * @param entryName - entry name, e.g. "screenshots/1.png".
+     * @param in - source of the entry data.
+     * @param codec - codec to compress the data with.
+     * @throws IOException
+     */
+    public void addStream(String entryName, InputStream in, ZipCodec codec) throws IOException {
+        ensureWritable();
+        ZipArchiveEntry.checkFileName(entryName);
+        archive.addEntry(new ZipArchiveEntry(entryName, codec), in);
+    }
+
+    /**
+     * Adds an entry with the data generated by the producer.
+     * 
+     * @param entryName - entry name, e.g. "records/42.dat".
+     * @param producer - source of the entry data.
+     * @throws IOException
+     */
+    public void addEntry(String entryName, ZipEntryProducer producer) throws IOException {
+        addEntry(entryName, producer, codec);
+    }
+
+    /**
+     * Adds an entry with the data generated by the producer using the given codec.
+     * 
+     * @param entryName - entry name, e.g. "records/42.dat".
+     * @param producer - source of the entry data.
+     * @param codec - codec to compress the data with.
+     * @throws IOException
+     */
+    public void addEntry(String entryName, ZipEntryProducer producer, ZipCodec codec) throws IOException {
+        ensureWritable();
+        ZipArchiveEntry.checkFileName(entryName);
+        archive.addEntry(new ZipArchiveEntry(entryName, codec), producer);
+    }
+
+    /**
+     * Writes the archive central directory. No entries may be added after this call.
+     * 
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        ensureWritable();
+        archive.flush();
+        finished = true;
+    }
+
+    /**
+     * Releases the archive file. If {@link #finish()} has not been called, 
+     * the archive is left incomplete.
+     */
+    public void close() {
+        archive.close();
+        IOUtils.safelyCloseStream(zipFC);
+    }
+
+    private void ensureWritable() {
+        if (finished) {
+            throw new IllegalStateException("Archive is finished");
+        }
+        if (archive.isBroken()) {
+            throw new IllegalStateException("Archive is broken by a failed add, it must be abandoned");
+        }
+    }
+}
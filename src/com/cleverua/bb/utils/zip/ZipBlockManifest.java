@@ -0,0 +1,138 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import com.cleverua.bb.utils.IOUtils;
+
+/**
+ * Writes a block hash manifest of a file, so an upload client can compare it with 
+ * the manifest of the previously uploaded version and send the changed blocks only.
+ * 
+ * <p>
+ * The file is split into blocks of the same size (the last one may be shorter). 
+ * For every block the manifest holds the rsync rolling checksum (a weak one, that can be 
+ * recalculated at every offset cheaply) and MD5 (a strong one). The manifest layout is 
+ * (all numbers are big-endian):
+ * <pre>
+ * int    magic number 0x5A424D31 ("ZBM1")
+ * int    block size
+ * long   file size
+ * int    number of blocks
+ * then for every block:
+ * int    rolling checksum: (b &lt;&lt; 16) | a, where a is the sum of the block bytes and 
+ *        b is the sum of a values after every byte, both modulo 2^16
+ * byte[] 16 bytes of MD5 of the block
+ * </pre>
+ * </p>
+ *
+ * <p>
+ * MD5 is computed by {@link MD5}, so the manifest does not need the RIM Crypto API
+ * and the application using it does not need to be signed for that API.
+ * </p>
+ */
+public class ZipBlockManifest {
+
+    public static final int DEFAULT_BLOCK_SIZE = 8 * 1024;
+
+    private static final int MAGIC = 0x5A424D31;
+
+    private ZipBlockManifest() {}
+
+    /**
+     * Writes the manifest of the file. If the manifest file already exists - it will be overwritten.
+     * 
+     * @param fileUrl - url of the file to write the manifest of.
+     * @param manifestUrl - url for the manifest file.
+     * @param blockSize - block size.
+     * @param pool - pool to take the IO buffers from.
+     * @throws IOException
+     */
+    public static void write(String fileUrl, String manifestUrl, int blockSize, ZipBufferPool pool) 
+            throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+
+        byte[][] buffers = null;
+        FileConnection fc = null;
+        FileConnection manifestFC = null;
+        InputStream in = null;
+        DataOutputStream out = null;
+
+        try {
+            buffers = pool.acquire(2);
+
+            fc = (FileConnection) Connector.open(fileUrl, Connector.READ);
+            final long fileSize = fc.fileSize();
+            in = fc.openInputStream();
+
+            manifestFC = (FileConnection) Connector.open(manifestUrl);
+            if (manifestFC.exists()) {
+                manifestFC.delete();
+            }
+            manifestFC.close();
+
+            manifestFC = (FileConnection) Connector.open(manifestUrl);
+            manifestFC.create();
+            out = new DataOutputStream(new BufferingOutputStream(manifestFC.openOutputStream(), buffers[1]));
+
+            out.writeInt(MAGIC);
+            out.writeInt(blockSize);
+            out.writeLong(fileSize);
+            out.writeInt((int) ((fileSize + blockSize - 1) / blockSize));
+
+            MD5 md5 = new MD5();
+            byte[] buffer = buffers[0];
+            int a = 0;
+            int b = 0;
+            int inBlock = 0;
+            int count;
+
+            while ((count = in.read(buffer)) != -1) {
+                int off = 0;
+                while (off < count) {
+                    final int len = Math.min(count - off, blockSize - inBlock);
+                    md5.update(buffer, off, len);
+                    for (int i = off; i < off + len; i++) {
+                        a += buffer[i] & 0xff;
+                        b += a;
+                    }
+                    off += len;
+                    inBlock += len;
+
+                    if (inBlock == blockSize) {
+                        writeBlock(out, a, b, md5);
+                        a = 0;
+                        b = 0;
+                        inBlock = 0;
+                    }
+                }
+            }
+
+            if (inBlock > 0) {
+                writeBlock(out, a, b, md5);
+            }
+
+            out.flush();
+
+        } finally {
+            IOUtils.safelyCloseStream(out);
+            IOUtils.safelyCloseStream(manifestFC);
+            IOUtils.safelyCloseStream(in);
+            IOUtils.safelyCloseStream(fc);
+            if (buffers != null) {
+                pool.release(buffers);
+            }
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, int a, int b, MD5 md5) throws IOException {
+        out.writeInt((b << 16) | (a & 0xffff));
+        out.write(md5.getDigest());
+    }
+}
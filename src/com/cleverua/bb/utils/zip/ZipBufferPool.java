@@ -0,0 +1,213 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.InterruptedIOException;
+import java.util.Vector;
+
+/**
+ * Pool of the IO buffers used for packing, with a hard limit on the memory they take.
+ * 
+ * <p>
+ * All buffers are of the same size. Every pack operation takes the buffers it needs at once 
+ * and holds them until it is done. When the budget does not allow to give the buffers out, 
+ * the operation waits until other operations return theirs instead of allocating more memory.
+ * Released buffers are kept for reuse while they fit the budget.
+ * </p>
+ * 
+ * <p>
+ * By default all pack operations share the {@link #getShared() shared} pool, so the budget 
+ * limits the memory taken by all concurrent packs together.
+ * </p>
+ */
+public class ZipBufferPool {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    public static final int DEFAULT_BUDGET      = 8 * DEFAULT_BUFFER_SIZE;
+
+    /**
+     * Max number of buffers a single pack operation takes.
+     */
+    static final int BUFFERS_PER_OPERATION = 2;
+
+    private static ZipBufferPool shared;
+
+    private int bufferSize;
+    private int budget;
+    private Vector free;
+
+    private int allocated; // bytes taken by all buffers, both free and given out
+    private int inUse;     // bytes taken by buffers given out
+
+    private int peakUsage;
+    private int hits;
+    private int misses;
+    private int waits;
+
+    /**
+     * @param budget - max number of bytes all buffers of the pool may take.
+     * @param bufferSize - size of a buffer.
+     * @throws IllegalArgumentException if the budget is not enough for a single pack operation.
+     */
+    public ZipBufferPool(int budget, int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.free = new Vector();
+        setBudget(budget);
+    }
+
+    /**
+     * @return the pool used by pack operations unless some other pool is specified.
+     * It has the {@link #DEFAULT_BUDGET default budget} which may be changed with {@link #setBudget(int)}.
+     */
+    public static synchronized ZipBufferPool getShared() {
+        if (shared == null) {
+            shared = new ZipBufferPool(DEFAULT_BUDGET, DEFAULT_BUFFER_SIZE);
+        }
+        return shared;
+    }
+
+    /**
+     * Changes the budget. If the new budget is less than the memory the buffers given out 
+     * already take, the extra buffers are dropped as soon as they are returned.
+     * 
+     * @param budget - max number of bytes all buffers of the pool may take.
+     * @throws IllegalArgumentException if the budget is not enough for a single pack operation.
+     */
+    public synchronized void setBudget(int budget) {
+        if (budget < BUFFERS_PER_OPERATION * bufferSize) {
+            throw new IllegalArgumentException("Budget is too small: " + budget);
+        }
+        this.budget = budget;
+
+        while (allocated > budget && !free.isEmpty()) {
+            free.removeElementAt(free.size() - 1);
+            allocated -= bufferSize;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Gives out <code>count</code> buffers at once, waiting for other 
+     * operations to release theirs if the budget does not allow it right now.
+     * 
+     * @param count - number of buffers, up to {@link #BUFFERS_PER_OPERATION}.
+     * @return the buffers.
+     * @throws InterruptedIOException if the thread gets interrupted while waiting.
+     */
+    synchronized byte[][] acquire(int count) throws InterruptedIOException {
+        if (count < 1 || count > BUFFERS_PER_OPERATION) {
+            throw new IllegalArgumentException("Invalid buffers count: " + count);
+        }
+
+        boolean waited = false;
+        while (allocated + Math.max(0, count - free.size()) * bufferSize > budget) {
+            if (!waited) {
+                waits++;
+                waited = true;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for buffers");
+            }
+        }
+
+        byte[][] buffers = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (free.isEmpty()) {
+                buffers[i] = new byte[bufferSize];
+                allocated += bufferSize;
+                misses++;
+            } else {
+                buffers[i] = (byte[]) free.lastElement();
+                free.removeElementAt(free.size() - 1);
+                hits++;
+            }
+        }
+
+        inUse += count * bufferSize;
+        if (inUse > peakUsage) {
+            peakUsage = inUse;
+        }
+
+        return buffers;
+    }
+
+    /**
+     * Returns the buffers given out by {@link #acquire(int)} back to the pool.
+     */
+    synchronized void release(byte[][] buffers) {
+        for (int i = 0; i < buffers.length; i++) {
+            inUse -= bufferSize;
+            if (allocated > budget) {
+                allocated -= bufferSize; // over budget after setBudget(), let it go
+            } else {
+                free.addElement(buffers[i]);
+            }
+        }
+        notifyAll();
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public synchronized int getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return number of bytes taken by the buffers given out right now.
+     */
+    public synchronized int getUsage() {
+        return inUse;
+    }
+
+    /**
+     * @return max number of bytes taken by the buffers given out at the same time.
+     */
+    public synchronized int getPeakUsage() {
+        return peakUsage;
+    }
+
+    /**
+     * @return how many times an operation had to wait for buffers because of the budget.
+     */
+    public synchronized int getWaits() {
+        return waits;
+    }
+
+    /**
+     * @return how many buffers were reused.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many buffers were allocated.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return percentage of the buffers given out that were reused rather than allocated.
+     */
+    public synchronized int getHitRate() {
+        final int total = hits + misses;
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    /**
+     * Resets peak usage, waits, hits and misses counters.
+     */
+    public synchronized void resetStatistics() {
+        peakUsage = inUse;
+        hits      = 0;
+        misses    = 0;
+        waits     = 0;
+    }
+}
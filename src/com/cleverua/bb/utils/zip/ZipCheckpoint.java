@@ -0,0 +1,286 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.CRC32;
+
+import com.cleverua.bb.utils.IOUtils;
+
+/**
+ * Persistent state of a resumable pack operation.
+ *
+ * <p>
+ * A checkpoint lists the entries that have been completely written to the
+ * output file together with the output offset right after the last of them.
+ * Everything past that offset is considered garbage and gets truncated on resume.
+ * </p>
+ *
+ * <p>
+ * The checkpoint file is an append-only journal, so saving a checkpoint costs the same
+ * no matter how many entries are packed already. The file starts with a header
+ * (format version and the packed directory) followed by records, one per {@link #save(long, Vector) save}.
+ * A record holds the entries packed since the previous record, the output offset and
+ * the last entry local header CRC. Every record is framed with its length and CRC, so a record
+ * cut short by a crash is recognized and dropped: the checkpoint is the one of the last complete record.
+ * </p>
+ *
+ * <p>
+ * The output file may have been rewritten since the checkpoint was saved (e.g. by a pack
+ * that is not resumable), so before the checkpoint is used, it is {@link #matches(FileConnection) checked}
+ * against the output: the output must be at least as long as the checkpointed part of it, and the local
+ * header of the last checkpointed entry must be the one the checkpoint remembers.
+ * </p>
+ */
+class ZipCheckpoint {
+
+    /**
+     * Checkpoint file url is the output file url with this suffix.
+     */
+    static final String EXTENSION = ".ckpt";
+
+    private static final int FORMAT_VERSION = 6;
+    private static final int RECORD_FRAME_SIZE = 8; // length and CRC
+
+    private String url;
+    private String dirToPack;
+    private long offset;
+    private int lastHeaderCRC32;
+    private Vector entries;
+    private int savedEntries; // number of entries in the journal
+    private long length;      // journal length up to the end of the last complete record
+
+    private ZipCheckpoint(String url, String dirToPack) {
+        this.url             = url;
+        this.dirToPack       = dirToPack;
+        this.offset          = 0;
+        this.entries         = new Vector();
+        this.lastHeaderCRC32 = getLastHeaderCRC32(entries);
+    }
+
+    /**
+     * Starts a new checkpoint file for packing of the <code>dirToPack</code> directory.
+     * If the file already exists - it will be overwritten.
+     *
+     * @param url - url of the checkpoint file.
+     * @param dirToPack - url of a directory being packed.
+     * @return the checkpoint with no entries.
+     * @throws IOException
+     */
+    static ZipCheckpoint create(String url, String dirToPack) throws IOException {
+        ZipCheckpoint checkpoint = new ZipCheckpoint(url, dirToPack);
+        byte[] header = getHeader(dirToPack);
+        IOUtils.saveDataToFile(url, header);
+        checkpoint.length = header.length;
+        return checkpoint;
+    }
+
+    /**
+     * Loads a checkpoint saved for packing of the <code>dirToPack</code> directory.
+     * A record cut short at the end of the journal is truncated away, so the next
+     * {@link #save(long, Vector) save} appends to the last complete one.
+     *
+     * @param url - url of the checkpoint file.
+     * @param dirToPack - url of a directory being packed.
+     * @return the checkpoint or null if there is no usable checkpoint at <code>url</code>
+     * (it does not exist, is corrupted or belongs to some other directory).
+     * @throws IOException if the <code>url</code> is invalid.
+     */
+    static ZipCheckpoint load(String url, String dirToPack) throws IOException {
+        if (!IOUtils.isPresent(url)) {
+            return null;
+        }
+
+        FileConnection fc = null;
+        DataInputStream in = null;
+
+        try {
+            fc = (FileConnection) Connector.open(url);
+            in = fc.openDataInputStream();
+
+            byte[] header = getHeader(dirToPack);
+            byte[] savedHeader = new byte[header.length];
+            IOUtils.readFully(in, savedHeader, 0, savedHeader.length);
+            if (!Arrays.equals(header, savedHeader)) {
+                return null;
+            }
+
+            ZipCheckpoint checkpoint = new ZipCheckpoint(url, dirToPack);
+            checkpoint.length = header.length;
+
+            final long fileSize = fc.fileSize();
+            while (checkpoint.length < fileSize && checkpoint.readRecord(in, fileSize - checkpoint.length)) {
+                // next record
+            }
+
+            in.close();
+            in = null;
+
+            if (fileSize > checkpoint.length) {
+                fc.truncate(checkpoint.length);
+            }
+
+            return checkpoint;
+
+        } catch (IOException e) {
+            // the header is cut short or the journal can not be fixed, just start over
+            return null;
+        } finally {
+            IOUtils.safelyCloseStream(in);
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+
+    /**
+     * Appends a record with the entries added to <code>entries</code> since the previous save.
+     *
+     * @param offset - output offset right after the last entry, everything before it must
+     * have reached the output file.
+     * @param entries - all entries packed so far, the ones already saved come first.
+     * @throws IOException
+     */
+    void save(long offset, Vector entries) throws IOException {
+        final int size = entries.size();
+        final int lastHeaderCRC32 = getLastHeaderCRC32(entries);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(size - savedEntries);
+        for (int i = savedEntries; i < size; i++) {
+            ((ZipArchiveEntry) entries.elementAt(i)).writeTo(record);
+        }
+        record.writeInt((int) offset); // ZIP offsets are unsigned 32 bit
+        record.writeInt(lastHeaderCRC32);
+        record.flush();
+
+        append(bytes.toByteArray());
+
+        this.offset          = offset;
+        this.lastHeaderCRC32 = lastHeaderCRC32;
+        this.entries         = entries;
+        this.savedEntries    = size;
+    }
+
+    /**
+     * Deletes the checkpoint file.
+     */
+    void delete() throws IOException {
+        IOUtils.delete(url);
+    }
+
+    /**
+     * Checks the checkpoint describes the current contents of the output file.
+     *
+     * @param zipFC - connection to the output file.
+     * @return true if the output file holds the checkpointed entries.
+     */
+    boolean matches(FileConnection zipFC) throws IOException {
+        if (!zipFC.exists() || zipFC.fileSize() < offset) {
+            return false;
+        }
+        if (entries.isEmpty()) {
+            return true;
+        }
+
+        ZipArchiveEntry last = (ZipArchiveEntry) entries.lastElement();
+        byte[] header = new byte[ZipArchive.getLocalHeader(last).length];
+
+        InputStream in = null;
+
+        try {
+            in = zipFC.openInputStream();
+            IOUtils.skipFully(in, last.getLocalHeaderOffset());
+            IOUtils.readFully(in, header, 0, header.length);
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            IOUtils.safelyCloseStream(in);
+        }
+
+        return CRC32.update(CRC32.INITIAL_VALUE, header) == lastHeaderCRC32;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    Vector getEntries() {
+        return entries;
+    }
+
+    // returns false if the record is cut short or damaged
+    private boolean readRecord(DataInputStream in, long available) throws IOException {
+        if (available < RECORD_FRAME_SIZE) {
+            return false;
+        }
+
+        final int size = in.readInt();
+        if (size < 0 || size > available - RECORD_FRAME_SIZE) {
+            return false;
+        }
+
+        byte[] data = new byte[size];
+        IOUtils.readFully(in, data, 0, size);
+        if (in.readInt() != CRC32.update(CRC32.INITIAL_VALUE, data)) {
+            return false;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(data));
+        final int count = record.readInt();
+        for (int i = 0; i < count; i++) {
+            entries.addElement(ZipArchiveEntry.readFrom(record));
+        }
+        offset          = record.readInt() & 0xffffffffL;
+        lastHeaderCRC32 = record.readInt();
+
+        savedEntries = entries.size();
+        length      += RECORD_FRAME_SIZE + size;
+        return true;
+    }
+
+    private void append(byte[] record) throws IOException {
+        FileConnection fc = null;
+        DataOutputStream out = null;
+
+        try {
+            fc = (FileConnection) Connector.open(url);
+            out = new DataOutputStream(fc.openOutputStream(length));
+            out.writeInt(record.length);
+            out.write(record);
+            out.writeInt(CRC32.update(CRC32.INITIAL_VALUE, record));
+            out.flush();
+        } finally {
+            IOUtils.safelyCloseStream(out);
+            IOUtils.safelyCloseStream(fc);
+        }
+
+        length += RECORD_FRAME_SIZE + record.length;
+    }
+
+    private static byte[] getHeader(String dirToPack) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(dirToPack);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int getLastHeaderCRC32(Vector entries) {
+        if (entries.isEmpty()) {
+            return CRC32.INITIAL_VALUE;
+        }
+        byte[] header = ZipArchive.getLocalHeader((ZipArchiveEntry) entries.lastElement());
+        return CRC32.update(CRC32.INITIAL_VALUE, header);
+    }
+}
@@ -0,0 +1,48 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compression method an archive entry data can be stored with.
+ * 
+ * <p>
+ * Available codecs are listed in {@link ZipCodecs}. A custom codec may be 
+ * added with {@link ZipCodecs#register(ZipCodec)}.
+ * </p>
+ */
+public interface ZipCodec {
+
+    /**
+     * @return compression method id as defined by the ZIP format specification, 
+     * e.g. 0 for "stored" or 8 for "deflated".
+     */
+    int getMethod();
+
+    /**
+     * @return minimum ZIP format version needed to extract data compressed with this codec.
+     */
+    int getVersionForExtract();
+
+    /**
+     * Wraps the <code>out</code> stream so that all data written to the returned stream 
+     * is compressed before it goes to <code>out</code>. Closing the returned stream 
+     * finishes the compressed data and closes <code>out</code>.
+     * 
+     * @param out - stream to write compressed data to.
+     * @return stream to write uncompressed data to.
+     * @throws IOException
+     */
+    OutputStream createCompressingStream(OutputStream out) throws IOException;
+
+    /**
+     * Wraps the <code>in</code> stream so that reading from the returned stream 
+     * returns data decompressed from <code>in</code>.
+     * 
+     * @param in - stream to read compressed data from.
+     * @return stream to read uncompressed data from.
+     * @throws IOException
+     */
+    InputStream createDecompressingStream(InputStream in) throws IOException;
+}
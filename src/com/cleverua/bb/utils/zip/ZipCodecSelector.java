@@ -0,0 +1,14 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * Picks a codec for every entry packed by {@link ZipPacker}, 
+ * see {@link ZipPackOptions#setCodecSelector(ZipCodecSelector)}.
+ */
+public interface ZipCodecSelector {
+
+    /**
+     * @param entryName - entry name relative to the packed directory, e.g. "dir_2/file_2.txt".
+     * @return codec for the entry or null to use the default one.
+     */
+    ZipCodec selectCodec(String entryName);
+}
@@ -0,0 +1,86 @@
+package com.cleverua.bb.utils.zip;
+
+import java.util.Hashtable;
+
+/**
+ * Registry of the {@link ZipCodec codecs} known to the ZIP packer.
+ * 
+ * <p>
+ * Out of the box there are "stored" (no compression), "deflated" and "zstd" codecs.
+ * DEFLATE level may be chosen with {@link #deflate(int)}: level 1 is the fastest one 
+ * and is a good fit when speed matters more than ratio, level 9 gives the best ratio.
+ * </p>
+ * 
+ * <p>
+ * Zstandard ({@link #ZSTD}, levels with {@link #zstd(int)}) looks for repeats in a window of up to 256 KB 
+ * (DEFLATE has 32 KB), so it gets a better ratio on data with distant repeats. Level 1 is a fast mode 
+ * in the spirit of LZ4, level 9 searches hardest. Compression takes up to about 0.5 MB at level 1 
+ * and 1.3 MB at level 9 (less for entries smaller than 64 KB), decompression about three windows. 
+ * This memory is not taken from the {@link ZipBufferPool}, the codec reuses it from entry to entry instead. 
+ * Note the method is rather new: readers must support ZIP method 93 (e.g. 7-Zip, libarchive).
+ * </p>
+ */
+public final class ZipCodecs {
+
+    public static final int METHOD_STORED   = 0;
+    public static final int METHOD_DEFLATED = 8;
+    public static final int METHOD_ZSTD     = 93;
+
+    public static final int DEFLATE_LEVEL_FASTEST = 1;
+    public static final int DEFLATE_LEVEL_DEFAULT = 6;
+    public static final int DEFLATE_LEVEL_BEST    = 9;
+
+    public static final int ZSTD_LEVEL_FASTEST = 1;
+    public static final int ZSTD_LEVEL_DEFAULT = 3;
+    public static final int ZSTD_LEVEL_BEST    = 9;
+
+    public static final ZipCodec STORED   = new StoredCodec();
+    public static final ZipCodec DEFLATED = new DeflateCodec(DEFLATE_LEVEL_DEFAULT);
+    public static final ZipCodec ZSTD     = new ZstdCodec(ZSTD_LEVEL_DEFAULT);
+
+    private static final Hashtable codecs = new Hashtable();
+
+    static {
+        register(STORED);
+        register(DEFLATED);
+        register(ZSTD);
+    }
+
+    private ZipCodecs() {}
+
+    /**
+     * @param level - DEFLATE level from {@link #DEFLATE_LEVEL_FASTEST} to {@link #DEFLATE_LEVEL_BEST}.
+     * @return DEFLATE codec using the given level.
+     * @throws IllegalArgumentException if the level is out of range.
+     */
+    public static ZipCodec deflate(int level) {
+        return new DeflateCodec(level);
+    }
+
+    /**
+     * @param level - Zstandard level from {@link #ZSTD_LEVEL_FASTEST} to {@link #ZSTD_LEVEL_BEST}.
+     * @return Zstandard codec using the given level.
+     * @throws IllegalArgumentException if the level is out of range.
+     */
+    public static ZipCodec zstd(int level) {
+        return new ZstdCodec(level);
+    }
+
+    /**
+     * Registers a codec, so it can be looked up by its compression method id.
+     * A codec registered earlier for the same method id gets replaced.
+     * 
+     * @param codec - codec to register.
+     */
+    public static void register(ZipCodec codec) {
+        codecs.put(new Integer(codec.getMethod()), codec);
+    }
+
+    /**
+     * @param method - compression method id.
+     * @return the codec registered for the method id or null if there is no such codec.
+     */
+    public static ZipCodec get(int method) {
+        return (ZipCodec) codecs.get(new Integer(method));
+    }
+}
@@ -0,0 +1,21 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Generates an archive entry data on the fly, 
+ * see {@link ZipArchiveWriter#addEntry(String, ZipEntryProducer)}.
+ */
+public interface ZipEntryProducer {
+
+    /**
+     * Writes the entry data to <code>out</code>. 
+     * The data is compressed and written to the archive as it goes, so there is no need 
+     * to have the whole data in memory. Implementations must not close <code>out</code>.
+     * 
+     * @param out - stream to write the entry data to.
+     * @throws IOException
+     */
+    void produce(OutputStream out) throws IOException;
+}
@@ -0,0 +1,209 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * Options for the {@link ZipPacker#pack(String, String, ZipPackOptions)} call.
+ * A newly created instance holds the defaults used by {@link ZipPacker#pack(String, String)}.
+ */
+public class ZipPackOptions {
+
+    public static final int DEFAULT_CHECKPOINT_ENTRIES = 64;
+    public static final int DEFAULT_CHECKPOINT_BYTES   = 4 * 1024 * 1024;
+
+    private boolean resumable;
+    private int checkpointEntries;
+    private int checkpointBytes;
+    private ZipCodec codec;
+    private ZipCodecSelector codecSelector;
+    private ZipBufferPool bufferPool;
+    private boolean verify;
+    private boolean rsyncFriendly;
+    private int manifestBlockSize;
+
+    public ZipPackOptions() {
+        resumable         = false;
+        checkpointEntries = DEFAULT_CHECKPOINT_ENTRIES;
+        checkpointBytes   = DEFAULT_CHECKPOINT_BYTES;
+        codec             = ZipCodecs.STORED;
+        codecSelector     = null;
+        bufferPool        = ZipBufferPool.getShared();
+        verify            = false;
+        rsyncFriendly     = false;
+        manifestBlockSize = ZipBlockManifest.DEFAULT_BLOCK_SIZE;
+    }
+
+    /**
+     * Turns the resumable mode on or off. It is off by default.
+     *
+     * <p>
+     * In the resumable mode ZipPacker periodically saves a checkpoint file next to
+     * the output file (the output file url with the ".ckpt" suffix). If the pack operation
+     * gets interrupted (application is killed, SDCard is removed, etc.), then the next
+     * pack of the same directory into the same output file truncates the output to
+     * the last checkpointed entry and continues from there instead of starting over.
+     * The checkpoint file is deleted once the archive is complete, and it is ignored (and deleted)
+     * if the output file no longer holds the checkpointed entries, e.g. it has been rewritten since.
+     * </p>
+     *
+     * @param resumable - true to turn the resumable mode on.
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Sets how often a checkpoint is saved in the resumable mode. A checkpoint is saved
+     * as soon as either of the limits is reached since the previous checkpoint.
+     *
+     * @param entries - max number of entries packed between two checkpoints.
+     * @param bytes - max number of bytes written between two checkpoints.
+     * @throws IllegalArgumentException if any of the values is less than 1.
+     */
+    public void setCheckpointInterval(int entries, int bytes) {
+        if (entries < 1 || bytes < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive");
+        }
+        this.checkpointEntries = entries;
+        this.checkpointBytes   = bytes;
+    }
+
+    public int getCheckpointEntries() {
+        return checkpointEntries;
+    }
+
+    public int getCheckpointBytes() {
+        return checkpointBytes;
+    }
+
+    /**
+     * Sets the codec used for entries the {@link #setCodecSelector(ZipCodecSelector) codec selector}
+     * has no opinion about. It is {@link ZipCodecs#STORED} by default.
+     * 
+     * <p>
+     * Directories are always stored.
+     * </p>
+     * 
+     * @param codec - default codec.
+     * @throws IllegalArgumentException if <code>codec</code> is null.
+     */
+    public void setCodec(ZipCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec is null");
+        }
+        this.codec = codec;
+    }
+
+    public ZipCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the selector that picks a codec for every entry. There is no selector by default.
+     * 
+     * @param codecSelector - codec selector or null to use the {@link #setCodec(ZipCodec) default codec} 
+     * for all entries.
+     */
+    public void setCodecSelector(ZipCodecSelector codecSelector) {
+        this.codecSelector = codecSelector;
+    }
+
+    public ZipCodecSelector getCodecSelector() {
+        return codecSelector;
+    }
+
+    /**
+     * Sets the pool the IO buffers are taken from. It is {@link ZipBufferPool#getShared()} by default.
+     * 
+     * @param bufferPool - buffer pool.
+     * @throws IllegalArgumentException if <code>bufferPool</code> is null.
+     */
+    public void setBufferPool(ZipBufferPool bufferPool) {
+        if (bufferPool == null) {
+            throw new IllegalArgumentException("Buffer pool is null");
+        }
+        this.bufferPool = bufferPool;
+    }
+
+    public ZipBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Turns verification of the packed archive on or off. It is off by default.
+     * 
+     * <p>
+     * If verification is on, the archive is re-read with {@link ZipVerifier} once it is packed 
+     * and {@link ZipVerificationException} is thrown if any problem is found.
+     * </p>
+     * 
+     * @param verify - true to turn verification on.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    public boolean isVerify() {
+        return verify;
+    }
+
+    /**
+     * Turns the rsync-friendly mode on or off. It is off by default.
+     * 
+     * <p>
+     * This mode keeps the output of packing nearly identical directories nearly identical, 
+     * so delta-sync tools transfer the changed parts only:
+     * <ul>
+     * <li>entries are packed in the order of their names;</li>
+     * <li>entries get the last modification time of the packed files rather than the current time;</li>
+     * <li>compressed data is flushed at content-defined points, so a local change 
+     * does not alter the whole rest of the compressed entry;</li>
+     * <li>a block hash manifest is written next to the output file (the output file url 
+     * with the ".blocks" suffix), see {@link ZipBlockManifest}.</li>
+     * </ul>
+     * </p>
+     * 
+     * @param rsyncFriendly - true to turn the rsync-friendly mode on.
+     */
+    public void setRsyncFriendly(boolean rsyncFriendly) {
+        this.rsyncFriendly = rsyncFriendly;
+    }
+
+    public boolean isRsyncFriendly() {
+        return rsyncFriendly;
+    }
+
+    /**
+     * Sets the block size of the manifest written in the rsync-friendly mode.
+     * It is {@link ZipBlockManifest#DEFAULT_BLOCK_SIZE} by default.
+     * 
+     * @param manifestBlockSize - block size.
+     * @throws IllegalArgumentException if the block size is less than 1.
+     */
+    public void setManifestBlockSize(int manifestBlockSize) {
+        if (manifestBlockSize < 1) {
+            throw new IllegalArgumentException("Invalid block size: " + manifestBlockSize);
+        }
+        this.manifestBlockSize = manifestBlockSize;
+    }
+
+    public int getManifestBlockSize() {
+        return manifestBlockSize;
+    }
+
+    /**
+     * @param entryName - entry name relative to the packed directory.
+     * @return codec to pack the entry with.
+     */
+    ZipCodec getCodec(String entryName) {
+        if (codecSelector != null) {
+            ZipCodec selected = codecSelector.selectCodec(entryName);
+            if (selected != null) {
+                return selected;
+            }
+        }
+        return codec;
+    }
+}
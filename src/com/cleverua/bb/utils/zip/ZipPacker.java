@@ -1,27 +1,36 @@
 package com.cleverua.bb.utils.zip;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.Vector;
 
 import javax.microedition.io.Connector;
 import javax.microedition.io.file.FileConnection;
 
+import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.StringComparator;
+
 import com.cleverua.bb.utils.IOUtils;
 
 /**
  * ZipPacker is able to pack a bunch of files into a one ZIP archive format file.
- * Note, ZipPacker uses zero compression only.
+ * Note, by default ZipPacker uses zero compression, 
+ * see {@link ZipPackOptions#setCodec(ZipCodec)} to change that.
  * 
  * @author Vit Khudenko, vit@cleverua.com
  */
 public class ZipPacker {
 
     private static final String FILE_SEPARATOR = System.getProperty("file.separator");
+    private static final String MANIFEST_EXT = ".blocks";
 
     private String dirToPack;
     private String outFilename;
+    private String checkpointFilename;
     private String relativeItemPathStart;
+    private ZipPackOptions options;
 
     /**
      * Packs directories/files found at <code>dirToZip</code> into a one ZIP archive format file.
@@ -33,13 +42,33 @@ public class ZipPacker {
      * @throws IOException
      */
     public static void pack(String dirToPack, String outputFileFullPath) throws IOException {
-        ZipPacker z = new ZipPacker(dirToPack, outputFileFullPath);
+        pack(dirToPack, outputFileFullPath, new ZipPackOptions());
+    }
+
+    /**
+     * Packs directories/files found at <code>dirToZip</code> into a one ZIP archive format file
+     * using the given options.
+     * 
+     * <p>If target already exists - it will be overwritten, unless it is a leftover of 
+     * an interrupted resumable pack of the same directory (see {@link ZipPackOptions#setResumable(boolean)}).</p>
+     * 
+     * @param dirToPack - url of a directory to pack.
+     * @param outputFileFullPath - url for the resulting ZIP file.
+     * @param options - pack options.
+     * @throws ZipVerificationException if verification is on and the packed archive fails it.
+     * @throws IOException
+     */
+    public static void pack(String dirToPack, String outputFileFullPath, ZipPackOptions options) 
+            throws IOException {
+        ZipPacker z = new ZipPacker(dirToPack, outputFileFullPath, options);
         z.pack();
     }
 
-    private ZipPacker(String dirToPack, String outputFileFullPath) {
+    private ZipPacker(String dirToPack, String outputFileFullPath, ZipPackOptions options) {
         this.dirToPack = dirToPack;
         this.outFilename = outputFileFullPath;
+        this.checkpointFilename = outputFileFullPath + ZipCheckpoint.EXTENSION;
+        this.options = options;
         this.relativeItemPathStart = getRelativeItemPathStart(); 
     }
 
@@ -50,31 +79,92 @@ public class ZipPacker {
 
         collectFilePaths(dirToPack, filePaths);
 
+        if (options.isRsyncFriendly()) {
+            // the order FileConnection.list() returns items in is not guaranteed to be stable
+            filePaths = sortPaths(filePaths);
+        }
+
         FileConnection zipFC = null;
         ZipArchive archive = null;
 
         try {
+            ZipCheckpoint checkpoint = null;
+            if (options.isResumable()) {
+                checkpoint = ZipCheckpoint.load(checkpointFilename, dirToPack);
+            }
+
             zipFC = (FileConnection) Connector.open(outFilename);
 
-            if (zipFC.exists()) {
-                zipFC.delete();
+            if (checkpoint != null) {
+                archive = resume(zipFC, checkpoint);
             }
-            zipFC.close();
 
-            zipFC = (FileConnection) Connector.open(outFilename);
-            zipFC.create();
+            if (archive == null) {
+                // a checkpoint left by an earlier pack can not describe the recreated output
+                IOUtils.delete(checkpointFilename);
+                checkpoint = options.isResumable() ? ZipCheckpoint.create(checkpointFilename, dirToPack) : null;
+
+                if (zipFC.exists()) {
+                    zipFC.delete();
+                }
+                zipFC.close();
+
+                zipFC = (FileConnection) Connector.open(outFilename);
+                zipFC.create();
+
+                archive = new ZipArchive(zipFC, options.getBufferPool());
+            }
+
+            archive.setResetPoints(options.isRsyncFriendly());
 
-            archive = new ZipArchive(zipFC.openOutputStream());
+            Hashtable packedNames = getEntryNames(archive.getEntries());
+
+            int lastCheckpointEntries = archive.getEntries().size();
+            long lastCheckpointOffset = archive.getOffset();
 
             // Pack the files
             final int size = filePaths.size();
             for (int i = 0; i < size; i++) {
                 String entryFullPath = (String) filePaths.elementAt(i);
-                archive.addEntry(new ZipArchiveEntry(getRelativeItemPath(entryFullPath), entryFullPath));
+                String entryName = getRelativeItemPath(entryFullPath);
+
+                if (packedNames.containsKey(entryName)) {
+                    continue; // packed before the interruption
+                }
+
+                final boolean isDirectory = IOUtils.isDirectory(entryFullPath);
+
+                ZipArchiveEntry entry = isDirectory 
+                        ? new ZipArchiveEntry(entryName, (byte[]) null) 
+                        : new ZipArchiveEntry(entryName, options.getCodec(entryName));
+
+                if (options.isRsyncFriendly()) {
+                    // the current time would make every header differ from the previous pack
+                    entry.setLastModified(IOUtils.getLastModified(entryFullPath));
+                }
+
+                if (isDirectory) {
+                    archive.addEntry(entry);
+                } else {
+                    archive.addEntry(entry, entryFullPath);
+                }
+
+                if (checkpoint != null 
+                        && (archive.getEntries().size() - lastCheckpointEntries >= options.getCheckpointEntries()
+                        || archive.getOffset() - lastCheckpointOffset >= options.getCheckpointBytes())) {
+                    archive.sync();
+                    checkpoint.save(archive.getOffset(), archive.getEntries());
+                    lastCheckpointEntries = archive.getEntries().size();
+                    lastCheckpointOffset = archive.getOffset();
+                }
             }
 
             archive.flush();
 
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+
         } finally {
             if (archive != null) {
                 archive.close();
@@ -82,6 +172,46 @@ public class ZipPacker {
             }
             IOUtils.safelyCloseStream(zipFC);
         }
+
+        if (options.isVerify()) {
+            ZipVerificationResult result = ZipVerifier.verify(
+                    outFilename, ZipVerifier.DEFAULT_THREADS, options.getBufferPool());
+            if (!result.isValid()) {
+                throw new ZipVerificationException(result);
+            }
+        }
+
+        if (options.isRsyncFriendly()) {
+            ZipBlockManifest.write(outFilename, outFilename + MANIFEST_EXT, 
+                    options.getManifestBlockSize(), options.getBufferPool());
+        }
+    }
+
+    /**
+     * Continues the output from the checkpoint.
+     *
+     * @return the archive to continue or null if the checkpoint does not describe the output 
+     * or can not be applied to it, the pack starts over then.
+     */
+    private ZipArchive resume(FileConnection zipFC, ZipCheckpoint checkpoint) throws IOException {
+        try {
+            if (!checkpoint.matches(zipFC)) {
+                return null;
+            }
+            // drop a partially written entry (if any) following the last checkpointed one
+            zipFC.truncate(checkpoint.getOffset());
+            return new ZipArchive(
+                    zipFC, 
+                    checkpoint.getEntries(), 
+                    checkpoint.getOffset(),
+                    options.getBufferPool()
+            );
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // a checkpoint that fails to apply would fail every later pack the same way
+            return null;
+        }
     }
 
     private void collectFilePaths(String path, Vector paths) throws IOException {
@@ -107,6 +237,28 @@ public class ZipPacker {
         }
     }
 
+    private static Vector sortPaths(Vector paths) {
+        String[] array = new String[paths.size()];
+        paths.copyInto(array);
+        Arrays.sort(array, StringComparator.getInstance(false));
+
+        Vector sorted = new Vector(array.length);
+        for (int i = 0; i < array.length; i++) {
+            sorted.addElement(array[i]);
+        }
+        return sorted;
+    }
+
+    private static Hashtable getEntryNames(Vector entries) {
+        final int size = entries.size();
+        Hashtable names = new Hashtable(size);
+        for (int i = 0; i < size; i++) {
+            String name = ((ZipArchiveEntry) entries.elementAt(i)).getFileName();
+            names.put(name, name);
+        }
+        return names;
+    }
+
     private String getRelativeItemPathStart() {
         String trimmed = dirToPack.substring(0, dirToPack.length() - 2);
         return dirToPack.substring(trimmed.indexOf(FILE_SEPARATOR));
@@ -0,0 +1,21 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link ZipPacker} when the archive it has just packed fails verification, 
+ * see {@link ZipPackOptions#setVerify(boolean)}.
+ */
+public class ZipVerificationException extends IOException {
+
+    private ZipVerificationResult result;
+
+    public ZipVerificationException(ZipVerificationResult result) {
+        super("Archive verification failed: " + result);
+        this.result = result;
+    }
+
+    public ZipVerificationResult getResult() {
+        return result;
+    }
+}
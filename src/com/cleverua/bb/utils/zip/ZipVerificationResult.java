@@ -0,0 +1,76 @@
+package com.cleverua.bb.utils.zip;
+
+import java.util.Vector;
+
+/**
+ * Outcome of a {@link ZipVerifier} run.
+ */
+public class ZipVerificationResult {
+
+    /**
+     * Max number of error messages kept, the rest of errors are just counted.
+     */
+    public static final int MAX_ERROR_MESSAGES = 100;
+
+    private Vector errors;
+    private int errorsCount;
+    private int entriesCount;
+
+    ZipVerificationResult() {
+        errors = new Vector();
+    }
+
+    /**
+     * @return true if no problems have been found.
+     */
+    public synchronized boolean isValid() {
+        return errorsCount == 0;
+    }
+
+    /**
+     * @return number of entries listed in the archive central directory.
+     */
+    public synchronized int getEntriesCount() {
+        return entriesCount;
+    }
+
+    /**
+     * @return total number of problems found.
+     */
+    public synchronized int getErrorsCount() {
+        return errorsCount;
+    }
+
+    /**
+     * @return descriptions of the first {@link #MAX_ERROR_MESSAGES} problems found.
+     */
+    public synchronized String[] getErrors() {
+        String[] result = new String[errors.size()];
+        errors.copyInto(result);
+        return result;
+    }
+
+    public synchronized String toString() {
+        StringBuffer sb = new StringBuffer();
+        sb.append(entriesCount).append(" entries, ").append(errorsCount).append(" errors");
+        final int size = errors.size();
+        for (int i = 0; i < size; i++) {
+            sb.append("\n").append(errors.elementAt(i));
+        }
+        if (errorsCount > size) {
+            sb.append("\n...");
+        }
+        return sb.toString();
+    }
+
+    synchronized void addError(String error) {
+        if (errors.size() < MAX_ERROR_MESSAGES) {
+            errors.addElement(error);
+        }
+        errorsCount++;
+    }
+
+    synchronized void setEntriesCount(int entriesCount) {
+        this.entriesCount = entriesCount;
+    }
+}
@@ -0,0 +1,391 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+
+import net.rim.device.api.util.Arrays;
+import net.rim.device.api.util.CRC32;
+import net.rim.device.api.util.Comparator;
+
+import com.cleverua.bb.utils.IOUtils;
+
+/**
+ * ZipVerifier re-reads a ZIP archive format file and checks it is sound.
+ *
+ * <p>
+ * The central directory is checked against the end of central directory record
+ * and every entry local header is checked against the central directory.
+ * Entry data is decompressed and its CRC and size are checked as well.
+ * Entries are verified by several threads in parallel, each of them reads its own part
+ * of the archive through a single buffer taken from a {@link ZipBufferPool}.
+ * </p>
+ *
+ * <p>
+ * Archives with a comment and ZIP64 archives are not supported.
+ * </p>
+ */
+public class ZipVerifier {
+
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final int CENTRAL_DIR_END_SIGNATURE         = 0x06054b50;
+    private static final int CENTRAL_DIR_END_SIZE              = 22;
+    private static final int CENTRAL_FILE_HEADER_SIGNATURE     = 0x02014b50;
+    private static final int CENTRAL_FILE_HEADER_CONSTANT_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE       = 0x04034b50;
+    private static final int LOCAL_FILE_HEADER_CONSTANT_SIZE   = 30;
+    private static final int DATA_DESCRIPTOR_SIGNATURE         = 0x08074b50;
+    private static final int DATA_DESCRIPTOR_SIZE              = 16;
+    private static final int FLAG_DATA_DESCRIPTOR              = 0x08;
+    private static final int MAX_16_BIT_VALUE                  = 0xffff;
+
+    private String zipUrl;
+    private ZipBufferPool pool;
+    private ZipVerificationResult result;
+
+    /**
+     * Verifies the archive using {@link #DEFAULT_THREADS} threads
+     * and the {@link ZipBufferPool#getShared() shared} buffer pool.
+     *
+     * @param zipUrl - url of the ZIP file to verify.
+     * @return verification result.
+     * @throws IOException if the file can not be read.
+     */
+    public static ZipVerificationResult verify(String zipUrl) throws IOException {
+        return verify(zipUrl, DEFAULT_THREADS, ZipBufferPool.getShared());
+    }
+
+    /**
+     * Verifies the archive.
+     *
+     * @param zipUrl - url of the ZIP file to verify.
+     * @param threads - number of threads to verify entries with.
+     * @param pool - pool to take the buffers from, every thread takes one buffer.
+     * @return verification result.
+     * @throws IOException if the file can not be read.
+     */
+    public static ZipVerificationResult verify(String zipUrl, int threads, ZipBufferPool pool)
+            throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid threads number: " + threads);
+        }
+        ZipVerifier v = new ZipVerifier(zipUrl, pool);
+        v.verify(threads);
+        return v.result;
+    }
+
+    private ZipVerifier(String zipUrl, ZipBufferPool pool) {
+        this.zipUrl = zipUrl;
+        this.pool = pool;
+        this.result = new ZipVerificationResult();
+    }
+
+    private void verify(int threads) throws IOException {
+        CentralRecord[] records = readCentralDirectory();
+        if (records == null || records.length == 0) {
+            return;
+        }
+
+        // every thread reads its part of the archive forward only
+        Arrays.sort(records, new Comparator() {
+            public int compare(Object o1, Object o2) {
+                long diff = ((CentralRecord) o1).localHeaderOffset - ((CentralRecord) o2).localHeaderOffset;
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        threads = Math.min(threads, records.length);
+        final int perThread = (records.length + threads - 1) / threads;
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Worker(records, i * perThread, Math.min((i + 1) * perThread, records.length)));
+            workers[i].start();
+        }
+
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException e) {
+                result.addError("Interrupted while waiting for verification threads");
+            }
+        }
+    }
+
+    private CentralRecord[] readCentralDirectory() throws IOException {
+        FileConnection fc = null;
+        InputStream in = null;
+
+        try {
+            fc = (FileConnection) Connector.open(zipUrl, Connector.READ);
+
+            final long fileSize = fc.fileSize();
+            if (fileSize < CENTRAL_DIR_END_SIZE) {
+                result.addError("File is too short to be a ZIP archive: " + fileSize + " bytes");
+                return null;
+            }
+
+            byte[] end = new byte[CENTRAL_DIR_END_SIZE];
+            in = fc.openInputStream();
+            IOUtils.skipFully(in, fileSize - CENTRAL_DIR_END_SIZE);
+            IOUtils.readFully(in, end, 0, end.length);
+            IOUtils.safelyCloseStream(in);
+            in = null;
+
+            if (readLe4Bytes(end, 0) != CENTRAL_DIR_END_SIGNATURE) {
+                result.addError("End of central directory record not found");
+                return null;
+            }
+
+            final int entriesOnThisDisk = readLe2Bytes(end, 8);
+            final int entriesNumber     = readLe2Bytes(end, 10);
+            final long centralDirSize   = readLe4Bytes(end, 12) & 0xffffffffL;
+            final long centralDirOffset = readLe4Bytes(end, 16) & 0xffffffffL;
+
+            if (entriesOnThisDisk != entriesNumber) {
+                result.addError("End of central directory lists " + entriesOnThisDisk
+                        + " entries on this disk out of " + entriesNumber);
+            }
+            if (centralDirOffset + centralDirSize + CENTRAL_DIR_END_SIZE != fileSize) {
+                result.addError("Central directory of " + centralDirSize + " bytes at offset "
+                        + centralDirOffset + " does not end where the end of central directory record starts");
+                if (centralDirOffset + centralDirSize > fileSize) {
+                    return null;
+                }
+            }
+
+            Vector records = new Vector();
+            byte[] header = new byte[CENTRAL_FILE_HEADER_CONSTANT_SIZE];
+
+            in = fc.openInputStream();
+            IOUtils.skipFully(in, centralDirOffset);
+
+            long read = 0;
+            while (read < centralDirSize) {
+                IOUtils.readFully(in, header, 0, header.length);
+
+                if (readLe4Bytes(header, 0) != CENTRAL_FILE_HEADER_SIGNATURE) {
+                    result.addError("Bad central file header signature at offset " + (centralDirOffset + read));
+                    break;
+                }
+
+                CentralRecord r = new CentralRecord();
+                r.versionForExtract     = readLe2Bytes(header, 6);
+                r.generalPurposeBitFlag = readLe2Bytes(header, 8);
+                r.compressionMethod     = readLe2Bytes(header, 10);
+                r.crc32                 = readLe4Bytes(header, 16);
+                r.compressedSize        = readLe4Bytes(header, 20) & 0xffffffffL;
+                r.uncompressedSize      = readLe4Bytes(header, 24) & 0xffffffffL;
+                r.localHeaderOffset     = readLe4Bytes(header, 42) & 0xffffffffL;
+
+                final int fileNameLength    = readLe2Bytes(header, 28);
+                final int extraFieldLength  = readLe2Bytes(header, 30);
+                final int fileCommentLength = readLe2Bytes(header, 32);
+
+                r.fileNameBytes = new byte[fileNameLength];
+                IOUtils.readFully(in, r.fileNameBytes, 0, fileNameLength);
+                IOUtils.skipFully(in, extraFieldLength + fileCommentLength);
+
+                read += CENTRAL_FILE_HEADER_CONSTANT_SIZE + fileNameLength + extraFieldLength + fileCommentLength;
+                records.addElement(r);
+            }
+
+            final int size = records.size();
+            result.setEntriesCount(size);
+
+            if (size > MAX_16_BIT_VALUE) {
+                result.addError("Central directory lists " + size
+                        + " entries, that does not fit the end of central directory record");
+            } else if (size != entriesNumber) {
+                result.addError("Central directory lists " + size
+                        + " entries while the end of central directory record says " + entriesNumber);
+            }
+
+            CentralRecord[] array = new CentralRecord[size];
+            records.copyInto(array);
+            return array;
+
+        } finally {
+            IOUtils.safelyCloseStream(in);
+            IOUtils.safelyCloseStream(fc);
+        }
+    }
+
+    /**
+     * Verifies the entry the stream is positioned at.
+     *
+     * @return number of bytes the entry takes, so the stream is positioned right after the entry.
+     */
+    private long verifyEntry(InputStream in, CentralRecord r, byte[] header, byte[] buffer)
+            throws IOException {
+        final String name = new String(r.fileNameBytes);
+
+        IOUtils.readFully(in, header, 0, LOCAL_FILE_HEADER_CONSTANT_SIZE);
+        if (readLe4Bytes(header, 0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            result.addError(name + ": bad local file header signature at offset " + r.localHeaderOffset);
+            return LOCAL_FILE_HEADER_CONSTANT_SIZE;
+        }
+
+        final int fileNameLength   = readLe2Bytes(header, 26);
+        final int extraFieldLength = readLe2Bytes(header, 28);
+
+        checkField(name, "version needed to extract", readLe2Bytes(header, 4), r.versionForExtract);
+        checkField(name, "general purpose bit flag", readLe2Bytes(header, 6), r.generalPurposeBitFlag);
+        checkField(name, "compression method", readLe2Bytes(header, 8), r.compressionMethod);
+        checkField(name, "file name length", fileNameLength, r.fileNameBytes.length);
+
+        final boolean hasDataDescriptor = (r.generalPurposeBitFlag & FLAG_DATA_DESCRIPTOR) != 0;
+        if (!hasDataDescriptor) {
+            checkField(name, "CRC-32", readLe4Bytes(header, 14), r.crc32);
+            checkField(name, "compressed size", readLe4Bytes(header, 18) & 0xffffffffL, r.compressedSize);
+            checkField(name, "uncompressed size", readLe4Bytes(header, 22) & 0xffffffffL, r.uncompressedSize);
+        }
+
+        byte[] fileNameBytes = new byte[fileNameLength];
+        IOUtils.readFully(in, fileNameBytes, 0, fileNameLength);
+        if (fileNameLength == r.fileNameBytes.length && !Arrays.equals(fileNameBytes, r.fileNameBytes)) {
+            result.addError(name + ": local file name differs: " + new String(fileNameBytes));
+        }
+        IOUtils.skipFully(in, extraFieldLength);
+
+        long entrySize = LOCAL_FILE_HEADER_CONSTANT_SIZE + fileNameLength + extraFieldLength + r.compressedSize;
+
+        verifyData(in, r, name, buffer);
+
+        if (hasDataDescriptor) {
+            IOUtils.readFully(in, header, 0, DATA_DESCRIPTOR_SIZE);
+            if (readLe4Bytes(header, 0) != DATA_DESCRIPTOR_SIGNATURE) {
+                result.addError(name + ": bad data descriptor signature");
+            } else {
+                checkField(name, "data descriptor CRC-32", readLe4Bytes(header, 4), r.crc32);
+                checkField(name, "data descriptor compressed size",
+                        readLe4Bytes(header, 8) & 0xffffffffL, r.compressedSize);
+                checkField(name, "data descriptor uncompressed size",
+                        readLe4Bytes(header, 12) & 0xffffffffL, r.uncompressedSize);
+            }
+            entrySize += DATA_DESCRIPTOR_SIZE;
+        }
+
+        return entrySize;
+    }
+
+    // decompresses the entry data and checks its CRC and size, leaves the stream right after the data
+    private void verifyData(InputStream in, CentralRecord r, String name, byte[] buffer) throws IOException {
+        LimitedInputStream compressed = new LimitedInputStream(in, r.compressedSize);
+
+        ZipCodec codec = ZipCodecs.get(r.compressionMethod);
+        if (codec == null) {
+            result.addError(name + ": unsupported compression method " + r.compressionMethod);
+        } else {
+            int crc = CRC32.INITIAL_VALUE;
+            long size = 0;
+
+            InputStream data = null;
+            try {
+                data = codec.createDecompressingStream(compressed);
+                int count;
+                while ((count = data.read(buffer)) != -1) {
+                    crc = CRC32.update(crc, buffer, 0, count);
+                    size += count;
+                }
+                checkField(name, "data CRC-32", crc ^ 0xffffffff, r.crc32);
+                checkField(name, "data size", size, r.uncompressedSize);
+            } catch (IOException e) {
+                result.addError(name + ": failed to decompress data: " + e);
+            } catch (RuntimeException e) {
+                // e.g. a codec failing on crafted data, the following entries are still checked
+                result.addError(name + ": failed to decompress data: " + e);
+            } finally {
+                IOUtils.safelyCloseStream(data);
+            }
+        }
+
+        compressed.skipRemaining();
+    }
+
+    private void checkField(String name, String field, long actual, long expected) {
+        if (actual != expected) {
+            result.addError(name + ": " + field + " is " + actual + " while central directory says " + expected);
+        }
+    }
+
+    private static int readLe2Bytes(byte[] data, int offset) {
+        return (data[offset] & 0xff) | ((data[offset + 1] & 0xff) << 8);
+    }
+
+    private static int readLe4Bytes(byte[] data, int offset) {
+        return readLe2Bytes(data, offset) | (readLe2Bytes(data, offset + 2) << 16);
+    }
+
+    private static class CentralRecord {
+        byte[] fileNameBytes;
+        int versionForExtract;
+        int generalPurposeBitFlag;
+        int compressionMethod;
+        int crc32;
+        long compressedSize;
+        long uncompressedSize;
+        long localHeaderOffset;
+    }
+
+    // verifies the [from, to) range of records sorted by their local header offsets
+    private class Worker implements Runnable {
+
+        private CentralRecord[] records;
+        private int from;
+        private int to;
+
+        Worker(CentralRecord[] records, int from, int to) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            byte[][] buffers = null;
+            FileConnection fc = null;
+            InputStream in = null;
+            CentralRecord r = null;
+
+            try {
+                buffers = pool.acquire(1);
+                byte[] header = new byte[LOCAL_FILE_HEADER_CONSTANT_SIZE];
+
+                fc = (FileConnection) Connector.open(zipUrl, Connector.READ);
+                in = fc.openInputStream();
+
+                long position = 0;
+                for (int i = from; i < to; i++) {
+                    r = records[i];
+
+                    if (r.localHeaderOffset < position) {
+                        result.addError(new String(r.fileNameBytes) + ": local header at offset "
+                                + r.localHeaderOffset + " overlaps the previous entry");
+                        continue;
+                    }
+
+                    IOUtils.skipFully(in, r.localHeaderOffset - position);
+                    position = r.localHeaderOffset + verifyEntry(in, r, header, buffers[0]);
+                }
+
+            } catch (IOException e) {
+                result.addError("Failed to verify entries: " + e);
+            } catch (RuntimeException e) {
+                // must not end the thread silently, the rest of its entries would pass unchecked
+                result.addError(r == null
+                        ? "Failed to verify entries: " + e
+                        : new String(r.fileNameBytes) + ": failed to verify: " + e);
+            } finally {
+                IOUtils.safelyCloseStream(in);
+                IOUtils.safelyCloseStream(fc);
+                if (buffers != null) {
+                    pool.release(buffers);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * Constants and code tables of the Zstandard format (RFC 8878)
+ * shared by {@link ZstdOutputStream} and {@link ZstdInputStream}.
+ */
+final class Zstd {
+
+    static final int MAGIC_NUMBER         = 0xFD2FB528;
+    static final int SKIPPABLE_MAGIC      = 0x184D2A50;
+    static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+
+    static final int MIN_WINDOW_LOG    = 10;
+    static final int MAX_BLOCK_SIZE    = 128 * 1024;
+    static final int BLOCK_HEADER_SIZE = 3;
+
+    static final int BLOCK_RAW        = 0;
+    static final int BLOCK_RLE        = 1;
+    static final int BLOCK_COMPRESSED = 2;
+
+    static final int LITERALS_RAW        = 0;
+    static final int LITERALS_RLE        = 1;
+    static final int LITERALS_COMPRESSED = 2;
+    static final int LITERALS_TREELESS   = 3;
+
+    static final int MODE_PREDEFINED = 0;
+    static final int MODE_RLE        = 1;
+    static final int MODE_COMPRESSED = 2;
+    static final int MODE_REPEAT     = 3;
+
+    /**
+     * Offset values up to this one refer to the repeat offsets, bigger ones are offsets plus this value.
+     */
+    static final int REPEAT_OFFSETS = 3;
+
+    static final int MAX_HUFFMAN_BITS       = 11;
+    static final int MAX_HUFFMAN_WEIGHT_LOG = 6;
+    static final int MAX_LITERAL            = 255;
+
+    static final int MIN_TABLE_LOG = 5;
+    static final int LL_MAX_LOG    = 9;
+    static final int ML_MAX_LOG    = 9;
+    static final int OF_MAX_LOG    = 8;
+
+    static final int MAX_LL_CODE = 35;
+    static final int MAX_ML_CODE = 52;
+    static final int MAX_OF_CODE = 31;
+
+    static final int[] LL_BASE = {
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+        16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048, 4096,
+        8192, 16384, 32768, 65536
+    };
+
+    static final int[] LL_BITS = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11, 12,
+        13, 14, 15, 16
+    };
+
+    static final int[] ML_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+        19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+        35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+        4099, 8195, 16387, 32771, 65539
+    };
+
+    static final int[] ML_BITS = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11,
+        12, 13, 14, 15, 16
+    };
+
+    // predefined distributions, -1 stands for "less than 1"
+    static final int LL_DEFAULT_LOG = 6;
+    static final int[] LL_DEFAULT_NORM = {
+        4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+        2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+        -1, -1, -1, -1
+    };
+
+    static final int ML_DEFAULT_LOG = 6;
+    static final int[] ML_DEFAULT_NORM = {
+        1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+        -1, -1, -1, -1, -1
+    };
+
+    static final int OF_DEFAULT_LOG = 5;
+    static final int[] OF_DEFAULT_NORM = {
+        1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1
+    };
+
+    // codes of the small lengths, bigger ones are computed
+    private static final int LL_CODE_TABLE_SIZE = 64;
+    private static final int ML_CODE_TABLE_SIZE = 128;
+    private static final byte[] LL_CODES = new byte[LL_CODE_TABLE_SIZE];
+    private static final byte[] ML_CODES = new byte[ML_CODE_TABLE_SIZE];
+
+    static {
+        for (int code = 0, value = 0; value < LL_CODE_TABLE_SIZE; value++) {
+            if (code + 1 < LL_BASE.length && LL_BASE[code + 1] <= value) {
+                code++;
+            }
+            LL_CODES[value] = (byte) code;
+        }
+        for (int code = 0, value = 0; value < ML_CODE_TABLE_SIZE; value++) {
+            if (code + 1 < ML_BASE.length && ML_BASE[code + 1] - ML_BASE[0] <= value) {
+                code++;
+            }
+            ML_CODES[value] = (byte) code;
+        }
+    }
+
+    private Zstd() {}
+
+    static int getLiteralsLengthCode(int literalsLength) {
+        return literalsLength < LL_CODE_TABLE_SIZE
+                ? LL_CODES[literalsLength]
+                : highBit(literalsLength) + 19;
+    }
+
+    static int getMatchLengthCode(int matchLength) {
+        final int value = matchLength - ML_BASE[0];
+        return value < ML_CODE_TABLE_SIZE
+                ? ML_CODES[value]
+                : highBit(value) + 36;
+    }
+
+    /**
+     * @param value - a positive value.
+     * @return index of the highest set bit of the value.
+     */
+    static int highBit(int value) {
+        int bit = 0;
+        for (int shift = 16; shift > 0; shift >>= 1) {
+            if ((value >>> shift) != 0) {
+                value >>>= shift;
+                bit += shift;
+            }
+        }
+        return bit;
+    }
+}
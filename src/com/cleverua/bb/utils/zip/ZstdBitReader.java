@@ -0,0 +1,96 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+
+/**
+ * Reads a bit stream written by {@link ZstdBitWriter}, from its end backwards.
+ *
+ * <p>
+ * Reading past the beginning of the stream gives zero bits, it is up to the caller
+ * to check the stream is {@link #isOverflow() not overrun} where it matters.
+ * </p>
+ */
+class ZstdBitReader {
+
+    private byte[] data;
+    private int start;
+    private int remaining; // bits left to read, negative after an overrun
+
+    // 8 bytes of the stream starting at cacheIndex, the stream is read from the end backwards
+    private long cache;
+    private int cacheIndex;
+
+    /**
+     * @param data - array holding the stream.
+     * @param start - stream start.
+     * @param end - index right after the stream.
+     * @throws IOException if there is no end mark.
+     */
+    void init(byte[] data, int start, int end) throws IOException {
+        if (end <= start || data[end - 1] == 0) {
+            throw new IOException("Corrupted Zstandard bit stream");
+        }
+        this.data       = data;
+        this.start      = start;
+        this.remaining  = (end - start - 1) * 8 + Zstd.highBit(data[end - 1] & 0xff);
+        this.cacheIndex = -8; // nothing cached
+    }
+
+    /**
+     * @param bits - number of bits, from 0 to 32.
+     * @return next <code>bits</code> of the stream, the first one read is the highest one.
+     */
+    int peekBits(int bits) {
+        final int high = remaining;
+        final int low = high - bits;
+        if (high <= 0) {
+            return 0;
+        }
+        if (low < 0) {
+            // only the lowest bits are left, the missing ones are zeros
+            return (int) (getBits(0, high) << -low);
+        }
+        return (int) getBits(low, high);
+    }
+
+    void skipBits(int bits) {
+        remaining -= bits;
+    }
+
+    int readBits(int bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        final int value = peekBits(bits);
+        remaining -= bits;
+        return value;
+    }
+
+    /**
+     * @return true if all the bits are read.
+     */
+    boolean isFinished() {
+        return remaining == 0;
+    }
+
+    /**
+     * @return true if more bits are read than the stream has.
+     */
+    boolean isOverflow() {
+        return remaining < 0;
+    }
+
+    // bits from low (inclusive) to high (exclusive), at most 32 of them
+    private long getBits(int low, int high) {
+        final int lowByte = low >> 3;
+        final int highByte = (high - 1) >> 3;
+        if (lowByte < cacheIndex || highByte >= cacheIndex + 8) {
+            cacheIndex = Math.max(0, highByte - 7);
+            cache = 0;
+            for (int i = Math.min(cacheIndex + 7, highByte); i >= cacheIndex; i--) {
+                cache = (cache << 8) | (data[start + i] & 0xff);
+            }
+        }
+        return (cache >>> (low - (cacheIndex << 3))) & ((1L << (high - low)) - 1);
+    }
+}
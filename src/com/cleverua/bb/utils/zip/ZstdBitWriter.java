@@ -0,0 +1,75 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * Writes a Zstandard bit stream: bits go from the lowest bit of the first byte up,
+ * and the decoder reads them back in the reverse order, starting from the end
+ * of the stream. The stream ends with a single 1 bit, so the decoder can find its end.
+ *
+ * <p>
+ * The stream is written into a byte array region. Bits not fitting the region are
+ * dropped, {@link #close()} tells if that happened.
+ * </p>
+ */
+class ZstdBitWriter {
+
+    private static final int FLUSH_BITS = 32;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long container;
+    private int count;
+    private boolean overflow;
+
+    /**
+     * Starts a new stream.
+     *
+     * @param buffer - array to write the stream to.
+     * @param offset - stream start.
+     * @param limit - stream may not go past this index.
+     */
+    void init(byte[] buffer, int offset, int limit) {
+        this.buffer    = buffer;
+        this.position  = offset;
+        this.limit     = limit;
+        this.container = 0;
+        this.count     = 0;
+        this.overflow  = false;
+    }
+
+    /**
+     * @param value - bits to add, only the lowest <code>bits</code> of it are used.
+     * @param bits - number of bits, from 0 to 32.
+     */
+    void addBits(int value, int bits) {
+        container |= ((long) value & ((1L << bits) - 1)) << count;
+        count += bits;
+        if (count >= FLUSH_BITS) {
+            flushBytes();
+        }
+    }
+
+    /**
+     * Adds the end mark and writes all the remaining bits.
+     *
+     * @return index right after the stream or -1 if the stream does not fit the region.
+     */
+    int close() {
+        addBits(1, 1);
+        count += 7; // the last byte may be incomplete
+        flushBytes();
+        return overflow ? -1 : position;
+    }
+
+    private void flushBytes() {
+        while (count >= 8) {
+            if (position < limit) {
+                buffer[position++] = (byte) container;
+            } else {
+                overflow = true;
+            }
+            container >>>= 8;
+            count -= 8;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.cleverua.bb.utils.zip;
+
+/**
+ * Entropy coding of a Zstandard compressed block: the literals section and the sequences section.
+ *
+ * <p>
+ * Literals are Huffman coded when it pays off. Every sequence code (literals length,
+ * offset, match length) is coded with the predefined distribution or with one fitted
+ * to the block, whichever is estimated to be shorter.
+ * </p>
+ */
+class ZstdBlockEncoder {
+
+    private static final int MIN_HUFFMAN_LITERALS = 64;
+    private static final int MAX_SINGLE_STREAM_LITERALS = 1023;
+    private static final int MAX_4_STREAMS_14_BITS_LITERALS = 16383;
+    private static final int JUMP_TABLE_SIZE = 6;
+    private static final int MAX_DISTRIBUTION_SIZE = 128;
+
+    private static final int LL = 0;
+    private static final int OF = 1;
+    private static final int ML = 2;
+
+    private static final int[] MAX_CODES = { Zstd.MAX_LL_CODE, Zstd.MAX_OF_CODE, Zstd.MAX_ML_CODE };
+    private static final int[] MAX_LOGS  = { Zstd.LL_MAX_LOG, Zstd.OF_MAX_LOG, Zstd.ML_MAX_LOG };
+    private static final int[][] DEFAULT_NORMS = { Zstd.LL_DEFAULT_NORM, Zstd.OF_DEFAULT_NORM, Zstd.ML_DEFAULT_NORM };
+    private static final int[] DEFAULT_LOGS = { Zstd.LL_DEFAULT_LOG, Zstd.OF_DEFAULT_LOG, Zstd.ML_DEFAULT_LOG };
+
+    private static final ZstdFse.EncodingTable[] DEFAULT_TABLES = new ZstdFse.EncodingTable[3];
+
+    static {
+        for (int kind = LL; kind <= ML; kind++) {
+            DEFAULT_TABLES[kind] = ZstdFse.buildEncodingTable(DEFAULT_NORMS[kind],
+                    DEFAULT_NORMS[kind].length - 1, DEFAULT_LOGS[kind]);
+        }
+    }
+
+    private ZstdBitWriter bits = new ZstdBitWriter();
+
+    private int[] literalCounts = new int[Zstd.MAX_LITERAL + 1];
+    private int[] lengths = new int[Zstd.MAX_LITERAL + 1];
+    private int[] codes = new int[Zstd.MAX_LITERAL + 1];
+
+    private byte[][] sequenceCodes = new byte[3][];
+    private int[][] codeCounts = new int[3][];
+    private ZstdFse.EncodingTable[] tables = new ZstdFse.EncodingTable[3];
+    private int[] tableModes = new int[3];
+
+    /**
+     * @param maxSequences - max number of sequences in a block.
+     */
+    ZstdBlockEncoder(int maxSequences) {
+        for (int kind = LL; kind <= ML; kind++) {
+            sequenceCodes[kind] = new byte[maxSequences];
+            codeCounts[kind] = new int[MAX_CODES[kind] + 1];
+        }
+    }
+
+    /**
+     * Encodes the block content.
+     *
+     * @param literals - literals of all the sequences followed by the last literals.
+     * @param literalsLengths - literals length of every sequence.
+     * @param matchLengths - match length of every sequence.
+     * @param offsetValues - offset value of every sequence: a repeat offset code or offset plus
+     * {@link Zstd#REPEAT_OFFSETS}.
+     * @param out - array to write the block to.
+     * @param offset - block start.
+     * @param limit - block may not go past this index.
+     * @return index right after the block or -1 if it does not fit before <code>limit</code>.
+     */
+    int encode(byte[] literals, int literalsCount,
+            int[] literalsLengths, int[] matchLengths, int[] offsetValues, int sequencesCount,
+            byte[] out, int offset, int limit) {
+        offset = writeLiterals(literals, literalsCount, out, offset, limit);
+        if (offset < 0) {
+            return -1;
+        }
+        return writeSequences(literalsLengths, matchLengths, offsetValues, sequencesCount, out, offset, limit);
+    }
+
+    private int writeLiterals(byte[] literals, int count, byte[] out, int offset, int limit) {
+        if (count > 1) {
+            for (int s = 0; s <= Zstd.MAX_LITERAL; s++) {
+                literalCounts[s] = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                literalCounts[literals[i] & 0xff]++;
+            }
+
+            int maxSymbol = Zstd.MAX_LITERAL;
+            while (literalCounts[maxSymbol] == 0) {
+                maxSymbol--;
+            }
+
+            if (literalCounts[maxSymbol] == count) {
+                final int end = writeRawLiteralsHeader(Zstd.LITERALS_RLE, count, out, offset, limit - 1);
+                if (end < 0) {
+                    return -1;
+                }
+                out[end] = (byte) maxSymbol;
+                return end + 1;
+            }
+
+            if (count >= MIN_HUFFMAN_LITERALS) {
+                final int end = writeHuffmanLiterals(literals, count, maxSymbol, out, offset, limit);
+                if (end > 0) {
+                    return end;
+                }
+            }
+        }
+
+        final int end = writeRawLiteralsHeader(Zstd.LITERALS_RAW, count, out, offset, limit - count);
+        if (end < 0) {
+            return -1;
+        }
+        System.arraycopy(literals, 0, out, end, count);
+        return end + count;
+    }
+
+    // -1 if Huffman coded literals are not shorter than the raw ones
+    private int writeHuffmanLiterals(byte[] literals, int count, int maxSymbol, byte[] out, int offset, int limit) {
+        final int rawSize = getRawLiteralsHeaderSize(count) + count;
+        limit = Math.min(limit, offset + rawSize - 1);
+
+        final int maxBits = ZstdHuffman.buildLengths(literalCounts, maxSymbol, Zstd.MAX_HUFFMAN_BITS, lengths);
+        ZstdHuffman.buildCodes(lengths, maxSymbol, maxBits, codes);
+
+        final boolean singleStream = count <= MAX_SINGLE_STREAM_LITERALS;
+        final int sizeFormat = singleStream ? 0 : (count <= MAX_4_STREAMS_14_BITS_LITERALS ? 2 : 3);
+        final int headerSize = singleStream ? 3 : sizeFormat + 2;
+
+        int end = ZstdHuffman.writeTable(lengths, maxSymbol, maxBits, out, offset + headerSize, limit, bits);
+        if (end < 0) {
+            return -1;
+        }
+
+        if (singleStream) {
+            end = ZstdHuffman.writeStream(literals, 0, count, codes, lengths, out, end, limit, bits);
+        } else {
+            final int jumpTable = end;
+            end += JUMP_TABLE_SIZE;
+            if (end > limit) {
+                return -1;
+            }
+            final int segment = (count + 3) >> 2;
+            for (int i = 0; i < 4 && end > 0; i++) {
+                final int start = end;
+                final int length = i < 3 ? segment : count - 3 * segment;
+                end = ZstdHuffman.writeStream(literals, i * segment, length, codes, lengths, out, end, limit, bits);
+                if (i < 3 && end > 0) {
+                    out[jumpTable + 2 * i]     = (byte) (end - start);
+                    out[jumpTable + 2 * i + 1] = (byte) ((end - start) >> 8);
+                }
+            }
+        }
+        if (end < 0) {
+            return -1;
+        }
+
+        final int sizeBits = sizeFormat < 2 ? 10 : (sizeFormat == 2 ? 14 : 18);
+        final long compressedSize = end - offset - headerSize;
+        long header = Zstd.LITERALS_COMPRESSED | (sizeFormat << 2) | ((long) count << 4)
+                | (compressedSize << (4 + sizeBits));
+        for (int i = 0; i < headerSize; i++) {
+            out[offset + i] = (byte) header;
+            header >>>= 8;
+        }
+
+        return end;
+    }
+
+    private static int getRawLiteralsHeaderSize(int count) {
+        return count <= 31 ? 1 : (count <= 4095 ? 2 : 3);
+    }
+
+    private static int writeRawLiteralsHeader(int type, int count, byte[] out, int offset, int limit) {
+        final int size = getRawLiteralsHeaderSize(count);
+        if (offset + size > limit) {
+            return -1;
+        }
+        if (size == 1) {
+            out[offset] = (byte) (type | (count << 3));
+        } else {
+            final int header = type | ((size == 2 ? 1 : 3) << 2) | (count << 4);
+            out[offset]     = (byte) header;
+            out[offset + 1] = (byte) (header >> 8);
+            if (size == 3) {
+                out[offset + 2] = (byte) (header >> 16);
+            }
+        }
+        return offset + size;
+    }
+
+    private int writeSequences(int[] literalsLengths, int[] matchLengths, int[] offsetValues, int count,
+            byte[] out, int offset, int limit) {
+        if (offset + 4 > limit) {
+            return -1;
+        }
+
+        if (count < 128) {
+            out[offset++] = (byte) count;
+        } else if (count < 0x7F00) {
+            out[offset++] = (byte) ((count >> 8) + 128);
+            out[offset++] = (byte) count;
+        } else {
+            out[offset++] = (byte) 255;
+            out[offset++] = (byte) (count - 0x7F00);
+            out[offset++] = (byte) ((count - 0x7F00) >> 8);
+        }
+        if (count == 0) {
+            return offset;
+        }
+
+        final byte[] llCodes = sequenceCodes[LL];
+        final byte[] ofCodes = sequenceCodes[OF];
+        final byte[] mlCodes = sequenceCodes[ML];
+        for (int kind = LL; kind <= ML; kind++) {
+            final int[] counts = codeCounts[kind];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            llCodes[i] = (byte) Zstd.getLiteralsLengthCode(literalsLengths[i]);
+            ofCodes[i] = (byte) Zstd.highBit(offsetValues[i]);
+            mlCodes[i] = (byte) Zstd.getMatchLengthCode(matchLengths[i]);
+            codeCounts[LL][llCodes[i]]++;
+            codeCounts[OF][ofCodes[i]]++;
+            codeCounts[ML][mlCodes[i]]++;
+        }
+
+        final int modesOffset = offset++;
+        int modes = 0;
+        for (int kind = LL; kind <= ML; kind++) {
+            if (offset + MAX_DISTRIBUTION_SIZE > limit) {
+                return -1;
+            }
+            offset = writeTable(kind, count, out, offset);
+            modes |= tableModes[kind] << (6 - 2 * kind);
+        }
+        out[modesOffset] = (byte) modes;
+
+        // the decoder goes forward, reading the bit stream from its end, so everything goes backwards here
+        final ZstdFse.EncodingTable llTable = tables[LL];
+        final ZstdFse.EncodingTable ofTable = tables[OF];
+        final ZstdFse.EncodingTable mlTable = tables[ML];
+
+        bits.init(out, offset, limit);
+        int last = count - 1;
+        int llState = llTable == null ? 0 : ZstdFse.initState(llTable, llCodes[last]);
+        int ofState = ofTable == null ? 0 : ZstdFse.initState(ofTable, ofCodes[last]);
+        int mlState = mlTable == null ? 0 : ZstdFse.initState(mlTable, mlCodes[last]);
+        addExtraBits(literalsLengths[last], matchLengths[last], offsetValues[last],
+                llCodes[last], mlCodes[last], ofCodes[last]);
+
+        for (int i = last - 1; i >= 0; i--) {
+            if (ofTable != null) {
+                ofState = ZstdFse.encode(bits, ofTable, ofState, ofCodes[i]);
+            }
+            if (mlTable != null) {
+                mlState = ZstdFse.encode(bits, mlTable, mlState, mlCodes[i]);
+            }
+            if (llTable != null) {
+                llState = ZstdFse.encode(bits, llTable, llState, llCodes[i]);
+            }
+            addExtraBits(literalsLengths[i], matchLengths[i], offsetValues[i], llCodes[i], mlCodes[i], ofCodes[i]);
+        }
+
+        if (mlTable != null) {
+            ZstdFse.flush(bits, mlTable, mlState);
+        }
+        if (ofTable != null) {
+            ZstdFse.flush(bits, ofTable, ofState);
+        }
+        if (llTable != null) {
+            ZstdFse.flush(bits, llTable, llState);
+        }
+
+        return bits.close();
+    }
+
+    private void addExtraBits(int literalsLength, int matchLength, int offsetValue, int llCode, int mlCode, int ofCode) {
+        bits.addBits(literalsLength - Zstd.LL_BASE[llCode], Zstd.LL_BITS[llCode]);
+        bits.addBits(matchLength - Zstd.ML_BASE[mlCode], Zstd.ML_BITS[mlCode]);
+        bits.addBits(offsetValue, ofCode); // the highest bit is implied by the code
+    }
+
+    // picks the table for the codes and writes its description
+    private int writeTable(int kind, int count, byte[] out, int offset) {
+        final int[] counts = codeCounts[kind];
+        int maxSymbol = counts.length - 1;
+        while (counts[maxSymbol] == 0) {
+            maxSymbol--;
+        }
+
+        if (counts[maxSymbol] == count) {
+            tableModes[kind] = Zstd.MODE_RLE;
+            tables[kind] = null;
+            out[offset] = (byte) maxSymbol;
+            return offset + 1;
+        }
+
+        final long predefinedCost = ZstdFse.estimateCost(counts, maxSymbol, DEFAULT_NORMS[kind], DEFAULT_LOGS[kind]);
+
+        final int tableLog = ZstdFse.getTableLog(count, maxSymbol, MAX_LOGS[kind]);
+        final int[] norm = ZstdFse.normalize(counts, maxSymbol, count, tableLog);
+        final int end = ZstdFse.writeDistribution(norm, maxSymbol, tableLog, out, offset);
+        final long compressedCost = ZstdFse.estimateCost(counts, maxSymbol, norm, tableLog)
+                + ((long) (end - offset) << 11);
+
+        if (predefinedCost <= compressedCost) {
+            tableModes[kind] = Zstd.MODE_PREDEFINED;
+            tables[kind] = DEFAULT_TABLES[kind];
+            return offset;
+        }
+
+        tableModes[kind] = Zstd.MODE_COMPRESSED;
+        tables[kind] = ZstdFse.buildEncodingTable(norm, maxSymbol, tableLog);
+        return end;
+    }
+}
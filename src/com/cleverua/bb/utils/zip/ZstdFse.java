@@ -0,0 +1,399 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+
+/**
+ * Finite State Entropy coding of the Zstandard format: building of the encoding and decoding
+ * tables from a normalized symbol distribution and reading and writing of the distribution.
+ *
+ * <p>
+ * A distribution gives every symbol a number of table states proportional to its probability,
+ * all the numbers sum up to the table size (2 to the power of the table log). -1 stands for
+ * a probability "less than 1", such a symbol gets a single state.
+ * </p>
+ */
+final class ZstdFse {
+
+    private ZstdFse() {}
+
+    /**
+     * Encoding table. Encoder states are table positions plus the table size.
+     */
+    static class EncodingTable {
+        int tableLog;
+        int[] stateTable;
+        int[] deltaBits;
+        int[] deltaFindState;
+    }
+
+    /**
+     * Decoding table. Decoder states are table positions.
+     */
+    static class DecodingTable {
+        int tableLog;
+        byte[] symbols;
+        byte[] bits;
+        int[] baselines;
+    }
+
+    static EncodingTable buildEncodingTable(int[] norm, int maxSymbol, int tableLog) {
+        final int tableSize = 1 << tableLog;
+        final byte[] spread = spread(norm, maxSymbol, tableLog);
+
+        EncodingTable table = new EncodingTable();
+        table.tableLog       = tableLog;
+        table.stateTable     = new int[tableSize];
+        table.deltaBits      = new int[maxSymbol + 1];
+        table.deltaFindState = new int[maxSymbol + 1];
+
+        int[] next = new int[maxSymbol + 1];
+        int total = 0;
+        for (int s = 0; s <= maxSymbol; s++) {
+            next[s] = total;
+            final int count = norm[s];
+            if (count == 0) {
+                // never encoded, the value only keeps cost estimates sane
+                table.deltaBits[s] = ((tableLog + 1) << 16) - tableSize;
+            } else if (count == -1 || count == 1) {
+                table.deltaBits[s]      = (tableLog << 16) - tableSize;
+                table.deltaFindState[s] = total - 1;
+                total++;
+            } else {
+                final int maxBitsOut = tableLog - Zstd.highBit(count - 1);
+                final int minStatePlus = count << maxBitsOut;
+                table.deltaBits[s]      = (maxBitsOut << 16) - minStatePlus;
+                table.deltaFindState[s] = total - count;
+                total += count;
+            }
+        }
+
+        for (int u = 0; u < tableSize; u++) {
+            final int s = spread[u] & 0xff;
+            table.stateTable[next[s]++] = tableSize + u;
+        }
+
+        return table;
+    }
+
+    /**
+     * @return the state to start encoding with, <code>symbol</code> is the last symbol the decoder gets.
+     */
+    static int initState(EncodingTable table, int symbol) {
+        final int delta = table.deltaBits[symbol];
+        final int bits = (delta + (1 << 15)) >> 16;
+        final int value = (bits << 16) - delta;
+        return table.stateTable[(value >> bits) + table.deltaFindState[symbol]];
+    }
+
+    /**
+     * Encodes a symbol, symbols are encoded in the reverse order of decoding.
+     *
+     * @return new state.
+     */
+    static int encode(ZstdBitWriter out, EncodingTable table, int state, int symbol) {
+        final int bits = (state + table.deltaBits[symbol]) >> 16;
+        out.addBits(state, bits);
+        return table.stateTable[(state >> bits) + table.deltaFindState[symbol]];
+    }
+
+    static void flush(ZstdBitWriter out, EncodingTable table, int state) {
+        out.addBits(state, table.tableLog);
+    }
+
+    /**
+     * Estimates size of the symbols encoded with a distribution.
+     *
+     * @return size in 1/256 bits.
+     */
+    static long estimateCost(int[] counts, int maxSymbol, int[] norm, int tableLog) {
+        long cost = 0;
+        for (int s = 0; s <= maxSymbol; s++) {
+            if (counts[s] == 0) {
+                continue;
+            }
+            final int n = s < norm.length ? norm[s] : 0;
+            if (n == 0) {
+                return Long.MAX_VALUE;
+            }
+            cost += (long) counts[s] * ((tableLog << 8) - log2(n < 0 ? 1 : n));
+        }
+        return cost;
+    }
+
+    /**
+     * Scales symbol counts to a distribution, every present symbol gets at least one state.
+     *
+     * @param counts - symbol counts, at least two symbols are present.
+     * @param maxSymbol - max present symbol.
+     * @param total - sum of the counts.
+     * @param tableLog - table log, the table must have more states than there are symbols.
+     * @return normalized counts.
+     */
+    static int[] normalize(int[] counts, int maxSymbol, int total, int tableLog) {
+        final int tableSize = 1 << tableLog;
+        int[] norm = new int[maxSymbol + 1];
+
+        int sum = 0;
+        int largest = 0;
+        for (int s = 0; s <= maxSymbol; s++) {
+            if (counts[s] > 0) {
+                int n = (int) (((long) counts[s] * tableSize + (total >> 1)) / total);
+                norm[s] = n < 1 ? 1 : n;
+                sum += norm[s];
+                if (norm[s] > norm[largest]) {
+                    largest = s;
+                }
+            }
+        }
+
+        if (sum < tableSize) {
+            norm[largest] += tableSize - sum;
+        }
+        while (sum > tableSize) {
+            // rounding went up too much, take the states away from the most probable symbol
+            largest = 0;
+            for (int i = 1; i <= maxSymbol; i++) {
+                if (norm[i] > norm[largest]) {
+                    largest = i;
+                }
+            }
+            final int cut = Math.min(sum - tableSize, Math.max(1, norm[largest] >> 2));
+            norm[largest] -= cut;
+            sum -= cut;
+        }
+
+        return norm;
+    }
+
+    /**
+     * @return table log for the number of encoded symbols, within the given limits.
+     */
+    static int getTableLog(int symbolsCount, int maxSymbol, int maxLog) {
+        int log = Zstd.highBit(symbolsCount) - 2;
+        final int minLog = Math.max(Zstd.MIN_TABLE_LOG, Zstd.highBit(maxSymbol) + 2);
+        if (log < minLog) {
+            log = minLog;
+        }
+        return Math.min(log, maxLog);
+    }
+
+    /**
+     * Writes a distribution description.
+     *
+     * @return index right after the description.
+     */
+    static int writeDistribution(int[] norm, int maxSymbol, int tableLog, byte[] out, int offset) {
+        long container = tableLog - Zstd.MIN_TABLE_LOG;
+        int count = 4;
+
+        int remaining = (1 << tableLog) + 1;
+        int threshold = 1 << tableLog;
+        int bits = tableLog + 1;
+        boolean previousIsZero = false;
+
+        int s = 0;
+        while (s <= maxSymbol && remaining > 1) {
+            if (previousIsZero) {
+                final int start = s;
+                while (norm[s] == 0) {
+                    s++;
+                }
+                int zeros = s - start;
+                while (zeros >= 3) {
+                    container |= 3L << count;
+                    count += 2;
+                    zeros -= 3;
+                    if (count >= 32) {
+                        offset = writeBytes(out, offset, container, 4);
+                        container >>>= 32;
+                        count -= 32;
+                    }
+                }
+                container |= (long) zeros << count;
+                count += 2;
+            }
+
+            int value = norm[s++];
+            final int max = (2 * threshold - 1) - remaining;
+            remaining -= value < 0 ? -value : value;
+            value++;
+            if (value >= threshold) {
+                value += max;
+            }
+            container |= (long) value << count;
+            count += value < max ? bits - 1 : bits;
+            previousIsZero = value == 1;
+
+            while (remaining < threshold) {
+                bits--;
+                threshold >>= 1;
+            }
+
+            if (count >= 32) {
+                offset = writeBytes(out, offset, container, 4);
+                container >>>= 32;
+                count -= 32;
+            }
+        }
+
+        return writeBytes(out, offset, container, (count + 7) >> 3);
+    }
+
+    /**
+     * Reads a distribution description.
+     *
+     * @param norm - array for the normalized counts, its length limits the max symbol.
+     * @param result - gets table log and max symbol.
+     * @return index right after the description.
+     * @throws IOException if the description is corrupted or its table log exceeds <code>maxLog</code>.
+     */
+    static int readDistribution(byte[] in, int offset, int end, int maxLog, int[] norm, int[] result)
+            throws IOException {
+        int position = 0; // in bits
+
+        final int tableLog = peekBits(in, offset, end, position, 4) + Zstd.MIN_TABLE_LOG;
+        if (tableLog > maxLog) {
+            throw new IOException("Zstandard table log is too large: " + tableLog);
+        }
+        position += 4;
+
+        int remaining = (1 << tableLog) + 1;
+        int threshold = 1 << tableLog;
+        int bits = tableLog + 1;
+        boolean previousIsZero = false;
+
+        int s = 0;
+        while (remaining > 1) {
+            if (previousIsZero) {
+                int repeat;
+                do {
+                    repeat = peekBits(in, offset, end, position, 2);
+                    position += 2;
+                    s += repeat;
+                } while (repeat == 3);
+            }
+            if (s >= norm.length) {
+                throw new IOException("Corrupted Zstandard distribution");
+            }
+
+            final int max = (2 * threshold - 1) - remaining;
+            int value = peekBits(in, offset, end, position, bits - 1);
+            if (value < max) {
+                position += bits - 1;
+            } else {
+                value = peekBits(in, offset, end, position, bits);
+                if (value >= threshold) {
+                    value -= max;
+                }
+                position += bits;
+            }
+            value--;
+            remaining -= value < 0 ? -value : value;
+            norm[s++] = value;
+            previousIsZero = value == 0;
+
+            while (remaining < threshold) {
+                bits--;
+                threshold >>= 1;
+            }
+        }
+
+        final int next = offset + ((position + 7) >> 3);
+        if (remaining != 1 || next > end) {
+            throw new IOException("Corrupted Zstandard distribution");
+        }
+
+        result[0] = tableLog;
+        result[1] = s - 1;
+        return next;
+    }
+
+    static DecodingTable buildDecodingTable(int[] norm, int maxSymbol, int tableLog) {
+        final int tableSize = 1 << tableLog;
+        final byte[] spread = spread(norm, maxSymbol, tableLog);
+
+        DecodingTable table = new DecodingTable();
+        table.tableLog  = tableLog;
+        table.symbols   = spread;
+        table.bits      = new byte[tableSize];
+        table.baselines = new int[tableSize];
+
+        int[] next = new int[maxSymbol + 1];
+        for (int s = 0; s <= maxSymbol; s++) {
+            next[s] = norm[s] == -1 ? 1 : norm[s];
+        }
+
+        for (int u = 0; u < tableSize; u++) {
+            final int s = spread[u] & 0xff;
+            final int nextState = next[s]++;
+            final int bits = tableLog - Zstd.highBit(nextState);
+            table.bits[u]      = (byte) bits;
+            table.baselines[u] = (nextState << bits) - tableSize;
+        }
+
+        return table;
+    }
+
+    /**
+     * Builds a table for the distribution with a single symbol, its states never change.
+     */
+    static DecodingTable buildRleTable(int symbol) {
+        DecodingTable table = new DecodingTable();
+        table.tableLog  = 0;
+        table.symbols   = new byte[] { (byte) symbol };
+        table.bits      = new byte[1];
+        table.baselines = new int[1];
+        return table;
+    }
+
+    // assigns table positions to the symbols, the same way on both sides
+    private static byte[] spread(int[] norm, int maxSymbol, int tableLog) {
+        final int tableSize = 1 << tableLog;
+        final int mask = tableSize - 1;
+        final int step = (tableSize >> 1) + (tableSize >> 3) + 3;
+
+        byte[] symbols = new byte[tableSize];
+        int highThreshold = tableSize - 1;
+        for (int s = 0; s <= maxSymbol; s++) {
+            if (norm[s] == -1) {
+                symbols[highThreshold--] = (byte) s;
+            }
+        }
+
+        int position = 0;
+        for (int s = 0; s <= maxSymbol; s++) {
+            for (int i = 0; i < norm[s]; i++) {
+                symbols[position] = (byte) s;
+                do {
+                    position = (position + step) & mask;
+                } while (position > highThreshold);
+            }
+        }
+
+        return symbols;
+    }
+
+    // reads up to 24 bits starting at a bit position, bits past the end are zeros
+    private static int peekBits(byte[] in, int offset, int end, int position, int bits) {
+        final int index = offset + (position >> 3);
+        int value = 0;
+        for (int i = 0; i < 4 && index + i < end; i++) {
+            value |= (in[index + i] & 0xff) << (i << 3);
+        }
+        return (value >>> (position & 7)) & ((1 << bits) - 1);
+    }
+
+    private static int writeBytes(byte[] out, int offset, long value, int count) {
+        for (int i = 0; i < count; i++) {
+            out[offset++] = (byte) value;
+            value >>>= 8;
+        }
+        return offset;
+    }
+
+    // log2 in 1/256 units, linear between the powers of two is precise enough for estimates
+    private static int log2(int value) {
+        final int high = Zstd.highBit(value);
+        return (high << 8) + (int) ((((long) value - (1 << high)) << 8) >> high);
+    }
+}
@@ -0,0 +1,366 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+
+/**
+ * Huffman coding of Zstandard literals: building of length-limited codes, reading and writing
+ * of the code description (symbol weights) and decoding of the literal streams.
+ *
+ * <p>
+ * A symbol weight is <code>maxBits + 1 - codeLength</code>, 0 for an absent symbol.
+ * The weight of the last present symbol is not written, it is implied by the others.
+ * Codes are canonical: the longest ones come first, the ones of the same length
+ * are ordered by symbol.
+ * </p>
+ */
+final class ZstdHuffman {
+
+    private static final int MAX_DIRECT_WEIGHTS = 128;
+    private static final int MAX_COMPRESSED_WEIGHTS_SIZE = 127;
+
+    private ZstdHuffman() {}
+
+    /**
+     * Decoding table, indexed by the next <code>maxBits</code> of the stream.
+     */
+    static class DecodingTable {
+        int maxBits;
+        byte[] symbols = new byte[1 << Zstd.MAX_HUFFMAN_BITS];
+        byte[] bits    = new byte[1 << Zstd.MAX_HUFFMAN_BITS];
+    }
+
+    /**
+     * Builds Huffman code lengths, no longer than <code>maxBits</code>.
+     *
+     * @param counts - symbol counts, at least two symbols are present.
+     * @param maxSymbol - max present symbol.
+     * @param lengths - gets code lengths, 0 for absent symbols.
+     * @return the max code length.
+     */
+    static int buildLengths(int[] counts, int maxSymbol, int maxBits, int[] lengths) {
+        // present symbols sorted by count
+        int[] symbols = new int[maxSymbol + 1];
+        int n = 0;
+        for (int s = 0; s <= maxSymbol; s++) {
+            lengths[s] = 0;
+            if (counts[s] > 0) {
+                int i = n++;
+                while (i > 0 && counts[symbols[i - 1]] > counts[s]) {
+                    symbols[i] = symbols[i - 1];
+                    i--;
+                }
+                symbols[i] = s;
+            }
+        }
+
+        int[] weights = new int[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = counts[symbols[i]];
+        }
+
+        int[] nodeWeights = new int[n - 1];
+        int[] leafParents = new int[n];
+        int[] nodeParents = new int[n - 1];
+        int[] nodeDepths = new int[n - 1];
+
+        while (true) {
+            // two queues: leaves and internal nodes, both sorted by weight
+            int leaf = 0;
+            int node = 0;
+            for (int k = 0; k < n - 1; k++) {
+                int sum = 0;
+                for (int pick = 0; pick < 2; pick++) {
+                    if (leaf < n && (node >= k || weights[leaf] <= nodeWeights[node])) {
+                        sum += weights[leaf];
+                        leafParents[leaf++] = k;
+                    } else {
+                        sum += nodeWeights[node];
+                        nodeParents[node++] = k;
+                    }
+                }
+                nodeWeights[k] = sum;
+            }
+
+            int maxLength = 0;
+            nodeDepths[n - 2] = 0;
+            for (int k = n - 3; k >= 0; k--) {
+                nodeDepths[k] = nodeDepths[nodeParents[k]] + 1;
+            }
+            for (int i = 0; i < n; i++) {
+                final int length = nodeDepths[leafParents[i]] + 1;
+                lengths[symbols[i]] = length;
+                if (length > maxLength) {
+                    maxLength = length;
+                }
+            }
+
+            if (maxLength <= maxBits) {
+                return maxLength;
+            }
+
+            // flatten the distribution and try again, the order of the weights stays the same
+            for (int i = 0; i < n; i++) {
+                weights[i] = (weights[i] + 1) >> 1;
+            }
+        }
+    }
+
+    /**
+     * Assigns canonical codes to the code lengths.
+     */
+    static void buildCodes(int[] lengths, int maxSymbol, int maxBits, int[] codes) {
+        int[] perLength = new int[maxBits + 2];
+        for (int s = 0; s <= maxSymbol; s++) {
+            perLength[lengths[s]]++;
+        }
+
+        int[] next = new int[maxBits + 2];
+        int min = 0;
+        for (int length = maxBits; length > 0; length--) {
+            next[length] = min;
+            min = (min + perLength[length]) >> 1;
+        }
+
+        for (int s = 0; s <= maxSymbol; s++) {
+            if (lengths[s] > 0) {
+                codes[s] = next[lengths[s]]++;
+            }
+        }
+    }
+
+    /**
+     * Writes the code description.
+     *
+     * @return index right after the description or -1 if the code can not be described
+     * or the description does not fit before <code>limit</code>.
+     */
+    static int writeTable(int[] lengths, int maxSymbol, int maxBits, byte[] out, int offset, int limit,
+            ZstdBitWriter bits) {
+        // weights of all the symbols but the last one
+        final int count = maxSymbol;
+        int[] weights = new int[count];
+        int[] weightCounts = new int[maxBits + 1];
+        int maxWeight = 0;
+        for (int s = 0; s < count; s++) {
+            weights[s] = lengths[s] == 0 ? 0 : maxBits + 1 - lengths[s];
+            weightCounts[weights[s]]++;
+            if (weights[s] > maxWeight) {
+                maxWeight = weights[s];
+            }
+        }
+
+        // FSE compressed weights are used when they are shorter than the direct ones
+        final boolean direct = count <= MAX_DIRECT_WEIGHTS;
+        final int directEnd = offset + 1 + ((count + 1) >> 1);
+        final int compressedEnd = writeCompressedWeights(weights, count, weightCounts, maxWeight,
+                out, offset, direct ? Math.min(limit, directEnd - 1) : limit, bits);
+        if (compressedEnd > 0) {
+            return compressedEnd;
+        }
+        if (!direct || directEnd > limit) {
+            return -1;
+        }
+
+        out[offset++] = (byte) (127 + count);
+        for (int s = 0; s < count; s += 2) {
+            final int second = s + 1 < count ? weights[s + 1] : 0;
+            out[offset++] = (byte) ((weights[s] << 4) | second);
+        }
+        return offset;
+    }
+
+    /**
+     * Writes the literals encoded backwards, so the decoder gets them in order.
+     *
+     * @return index right after the stream or -1 if it does not fit before <code>limit</code>.
+     */
+    static int writeStream(byte[] literals, int offset, int length, int[] codes, int[] lengths,
+            byte[] out, int outOffset, int limit, ZstdBitWriter bits) {
+        bits.init(out, outOffset, limit);
+        for (int i = offset + length - 1; i >= offset; i--) {
+            final int s = literals[i] & 0xff;
+            bits.addBits(codes[s], lengths[s]);
+        }
+        return bits.close();
+    }
+
+    /**
+     * Reads the code description into the table.
+     *
+     * @return index right after the description.
+     * @throws IOException if the description is corrupted.
+     */
+    static int readTable(byte[] in, int offset, int end, DecodingTable table, ZstdBitReader reader)
+            throws IOException {
+        if (offset >= end) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        final int header = in[offset++] & 0xff;
+
+        int[] weights = new int[Zstd.MAX_LITERAL + 1];
+        int count = 0;
+
+        if (header < 128) {
+            final int weightsEnd = offset + header;
+            if (weightsEnd > end) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+
+            int[] norm = new int[Zstd.MAX_HUFFMAN_BITS + 1];
+            int[] result = new int[2];
+            final int streamStart = ZstdFse.readDistribution(in, offset, weightsEnd,
+                    Zstd.MAX_HUFFMAN_WEIGHT_LOG, norm, result);
+            ZstdFse.DecodingTable fse = ZstdFse.buildDecodingTable(norm, result[1], result[0]);
+
+            // two interleaved states, the stream ends when an update reads past it
+            reader.init(in, streamStart, weightsEnd);
+            int state1 = reader.readBits(fse.tableLog);
+            int state2 = reader.readBits(fse.tableLog);
+            while (true) {
+                count = addWeight(weights, count, fse.symbols[state1]);
+                state1 = fse.baselines[state1] + reader.readBits(fse.bits[state1]);
+                if (reader.isOverflow()) {
+                    count = addWeight(weights, count, fse.symbols[state2]);
+                    break;
+                }
+
+                count = addWeight(weights, count, fse.symbols[state2]);
+                state2 = fse.baselines[state2] + reader.readBits(fse.bits[state2]);
+                if (reader.isOverflow()) {
+                    count = addWeight(weights, count, fse.symbols[state1]);
+                    break;
+                }
+            }
+
+            offset = weightsEnd;
+        } else {
+            count = header - 127;
+            final int weightsEnd = offset + ((count + 1) >> 1);
+            if (weightsEnd > end) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+            for (int s = 0; s < count; s += 2) {
+                final int b = in[offset++] & 0xff;
+                weights[s] = b >> 4;
+                weights[s + 1] = b & 0xf;
+            }
+            weights[count] = 0; // the odd half byte
+        }
+
+        int sum = 0;
+        for (int s = 0; s < count; s++) {
+            if (weights[s] > Zstd.MAX_HUFFMAN_BITS) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+            if (weights[s] > 0) {
+                sum += 1 << (weights[s] - 1);
+            }
+        }
+        if (sum == 0) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+
+        final int maxBits = Zstd.highBit(sum) + 1;
+        final int rest = (1 << maxBits) - sum;
+        if (maxBits > Zstd.MAX_HUFFMAN_BITS || (rest & (rest - 1)) != 0) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        weights[count] = Zstd.highBit(rest) + 1;
+
+        table.maxBits = maxBits;
+        int position = 0;
+        for (int weight = 1; weight <= maxBits; weight++) {
+            final byte length = (byte) (maxBits + 1 - weight);
+            final int span = 1 << (weight - 1);
+            for (int s = 0; s <= count; s++) {
+                if (weights[s] == weight) {
+                    for (int i = 0; i < span; i++) {
+                        table.symbols[position] = (byte) s;
+                        table.bits[position++] = length;
+                    }
+                }
+            }
+        }
+
+        return offset;
+    }
+
+    /**
+     * Decodes a literals stream.
+     *
+     * @throws IOException if the stream does not hold exactly <code>count</code> literals.
+     */
+    static void readStream(byte[] in, int start, int end, DecodingTable table, ZstdBitReader reader,
+            byte[] out, int offset, int count) throws IOException {
+        reader.init(in, start, end);
+        final int maxBits = table.maxBits;
+        for (int i = offset, stop = offset + count; i < stop; i++) {
+            final int index = reader.peekBits(maxBits);
+            out[i] = table.symbols[index];
+            reader.skipBits(table.bits[index]);
+        }
+        if (!reader.isFinished()) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+    }
+
+    // the last symbol weight is implied, so at most MAX_LITERAL weights are written
+    private static int addWeight(int[] weights, int count, int weight) throws IOException {
+        if (count >= Zstd.MAX_LITERAL) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        weights[count] = weight;
+        return count + 1;
+    }
+
+    // FSE compressed weights, -1 if they are not worth it or do not fit
+    private static int writeCompressedWeights(int[] weights, int count, int[] weightCounts, int maxWeight,
+            byte[] out, int offset, int limit, ZstdBitWriter bits) {
+        int maxCount = 0;
+        for (int w = 0; w <= maxWeight; w++) {
+            maxCount = Math.max(maxCount, weightCounts[w]);
+        }
+        if (count < 2 || maxCount == count || maxCount == 1) {
+            // a single weight value can not be encoded, all different ones are not worth it
+            return -1;
+        }
+
+        final int tableLog = ZstdFse.getTableLog(count, maxWeight, Zstd.MAX_HUFFMAN_WEIGHT_LOG);
+        int[] norm = ZstdFse.normalize(weightCounts, maxWeight, count, tableLog);
+        ZstdFse.EncodingTable table = ZstdFse.buildEncodingTable(norm, maxWeight, tableLog);
+
+        // the description size must fit the header byte
+        limit = Math.min(limit, offset + 1 + MAX_COMPRESSED_WEIGHTS_SIZE);
+        if (offset + 1 + 16 > limit) {
+            return -1;
+        }
+        final int streamStart = ZstdFse.writeDistribution(norm, maxWeight, tableLog, out, offset + 1);
+
+        // mirrors the decoder: two interleaved states, the first one gets the first weight
+        bits.init(out, streamStart, limit);
+        int i = count;
+        int state1;
+        int state2;
+        if ((count & 1) != 0) {
+            state1 = ZstdFse.initState(table, weights[--i]);
+            state2 = ZstdFse.initState(table, weights[--i]);
+            state1 = ZstdFse.encode(bits, table, state1, weights[--i]);
+        } else {
+            state2 = ZstdFse.initState(table, weights[--i]);
+            state1 = ZstdFse.initState(table, weights[--i]);
+        }
+        while (i > 0) {
+            state2 = ZstdFse.encode(bits, table, state2, weights[--i]);
+            state1 = ZstdFse.encode(bits, table, state1, weights[--i]);
+        }
+        ZstdFse.flush(bits, table, state2);
+        ZstdFse.flush(bits, table, state1);
+
+        final int end = bits.close();
+        if (end < 0) {
+            return -1;
+        }
+        out[offset] = (byte) (end - offset - 1);
+        return end;
+    }
+}
@@ -0,0 +1,558 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses Zstandard frames read from the underlying stream.
+ *
+ * <p>
+ * Concatenated frames and skippable frames are supported, dictionaries are not. The data is
+ * decoded block by block into a buffer holding the frame window, so memory use depends on
+ * the window size of the frame: it may not exceed {@link #MAX_WINDOW_SIZE}.
+ * Frame checksums are skipped, ZIP entries carry their own CRC-32.
+ * </p>
+ */
+class ZstdInputStream extends InputStream {
+
+    static final int MAX_WINDOW_SIZE = 8 * 1024 * 1024;
+
+    private static final int MAX_SLIDE_SLACK = 1024 * 1024;
+    private static final int MAX_OFFSET_CODE = 30;
+    private static final int[] DICTIONARY_ID_SIZES = { 0, 1, 2, 4 };
+    private static final int[] CONTENT_SIZE_SIZES = { 0, 2, 4, 8 };
+
+    private static final int LL = 0;
+    private static final int OF = 1;
+    private static final int ML = 2;
+
+    private static final int[] MAX_CODES = { Zstd.MAX_LL_CODE, Zstd.MAX_OF_CODE, Zstd.MAX_ML_CODE };
+    private static final int[] MAX_LOGS  = { Zstd.LL_MAX_LOG, Zstd.OF_MAX_LOG, Zstd.ML_MAX_LOG };
+
+    private static final ZstdFse.DecodingTable[] DEFAULT_TABLES = {
+        ZstdFse.buildDecodingTable(Zstd.LL_DEFAULT_NORM, Zstd.MAX_LL_CODE, Zstd.LL_DEFAULT_LOG),
+        ZstdFse.buildDecodingTable(Zstd.OF_DEFAULT_NORM, Zstd.OF_DEFAULT_NORM.length - 1, Zstd.OF_DEFAULT_LOG),
+        ZstdFse.buildDecodingTable(Zstd.ML_DEFAULT_NORM, Zstd.MAX_ML_CODE, Zstd.ML_DEFAULT_LOG)
+    };
+
+    private InputStream in;
+    private boolean closed;
+
+    // frame state
+    private boolean inFrame;
+    private boolean hasChecksum;
+    private int windowSize;
+    private int blockMaxSize;
+
+    // decoded data: the window history followed by the data not read yet
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private int frameStart; // negative once the frame start is slid out of the buffer
+
+    private byte[] block;
+    private byte[] literals;
+    private int literalsCount;
+
+    private ZstdBitReader reader = new ZstdBitReader();
+    private ZstdHuffman.DecodingTable huffmanTable = new ZstdHuffman.DecodingTable();
+    private boolean hasHuffmanTable;
+    private ZstdFse.DecodingTable[] tables = new ZstdFse.DecodingTable[3];
+    private int[] norm = new int[Zstd.MAX_ML_CODE + 1];
+    private int[] distribution = new int[2];
+    private int[] repeatOffsets = new int[Zstd.REPEAT_OFFSETS];
+
+    private byte[] header = new byte[8];
+
+    ZstdInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (!decodeBlock()) {
+                return -1;
+            }
+        }
+        final int count = Math.min(len, limit - position);
+        System.arraycopy(buffer, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    public int available() throws IOException {
+        ensureOpen();
+        return limit - position;
+    }
+
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            in.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    /**
+     * Decodes the next block, starting a new frame if needed.
+     *
+     * @return false if there are no more frames.
+     */
+    private boolean decodeBlock() throws IOException {
+        if (!inFrame && !readFrameHeader()) {
+            return false;
+        }
+
+        readFully(header, 0, Zstd.BLOCK_HEADER_SIZE);
+        final int blockHeader = readInt(header, 0, Zstd.BLOCK_HEADER_SIZE);
+        final boolean last = (blockHeader & 1) != 0;
+        final int type = (blockHeader >> 1) & 3;
+        final int size = blockHeader >>> 3;
+
+        if (size > blockMaxSize) {
+            throw new IOException("Corrupted Zstandard block: size " + size);
+        }
+        makeRoom();
+
+        switch (type) {
+            case Zstd.BLOCK_RAW:
+                readFully(buffer, limit, size);
+                limit += size;
+                break;
+            case Zstd.BLOCK_RLE:
+                readFully(header, 0, 1);
+                for (int i = 0; i < size; i++) {
+                    buffer[limit++] = header[0];
+                }
+                break;
+            case Zstd.BLOCK_COMPRESSED:
+                readFully(block, 0, size);
+                decodeCompressedBlock(size);
+                break;
+            default:
+                throw new IOException("Corrupted Zstandard block: reserved type");
+        }
+
+        if (last) {
+            if (hasChecksum) {
+                readFully(header, 0, 4);
+            }
+            inFrame = false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the stream ends before a frame.
+     */
+    private boolean readFrameHeader() throws IOException {
+        while (true) {
+            final int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            header[0] = (byte) first;
+            readFully(header, 1, 3);
+            final int magic = readInt(header, 0, 4);
+
+            if ((magic & Zstd.SKIPPABLE_MAGIC_MASK) == Zstd.SKIPPABLE_MAGIC) {
+                readFully(header, 0, 4);
+                skipFully(readInt(header, 0, 4) & 0xFFFFFFFFL);
+                continue;
+            }
+            if (magic != Zstd.MAGIC_NUMBER) {
+                throw new IOException("Not a Zstandard frame");
+            }
+            break;
+        }
+
+        readFully(header, 0, 1);
+        final int descriptor = header[0] & 0xff;
+        final int contentSizeFlag = descriptor >> 6;
+        final boolean singleSegment = (descriptor & 0x20) != 0;
+        final int dictionaryIdFlag = descriptor & 3;
+        if ((descriptor & 0x08) != 0) {
+            throw new IOException("Corrupted Zstandard frame header");
+        }
+        hasChecksum = (descriptor & 0x04) != 0;
+
+        long window = 0;
+        if (!singleSegment) {
+            readFully(header, 0, 1);
+            final int exponent = (header[0] & 0xff) >> 3;
+            final int mantissa = header[0] & 7;
+            final long base = 1L << (Zstd.MIN_WINDOW_LOG + exponent);
+            window = base + (base >> 3) * mantissa;
+        }
+
+        final int dictionaryIdSize = DICTIONARY_ID_SIZES[dictionaryIdFlag];
+        readFully(header, 0, dictionaryIdSize);
+        if (readInt(header, 0, dictionaryIdSize) != 0) {
+            throw new IOException("Zstandard dictionaries are not supported");
+        }
+
+        final int contentSizeSize = contentSizeFlag == 0 && singleSegment ? 1 : CONTENT_SIZE_SIZES[contentSizeFlag];
+        readFully(header, 0, contentSizeSize);
+        if (singleSegment) {
+            window = readInt(header, 0, Math.min(contentSizeSize, 4)) & 0xFFFFFFFFL;
+            if (contentSizeSize == 2) {
+                window += 256;
+            } else if (contentSizeSize == 8 && readInt(header, 4, 4) != 0) {
+                window = Long.MAX_VALUE;
+            }
+        }
+
+        if (window > MAX_WINDOW_SIZE) {
+            throw new IOException("Zstandard window is too large: " + window);
+        }
+        startFrame((int) window);
+        return true;
+    }
+
+    private void startFrame(int window) {
+        windowSize   = window;
+        blockMaxSize = Math.min(window, Zstd.MAX_BLOCK_SIZE);
+
+        final int bufferSize = window + blockMaxSize + Math.min(window, MAX_SLIDE_SLACK);
+        if (buffer == null || buffer.length < bufferSize) {
+            buffer = new byte[bufferSize];
+        }
+        if (block == null || block.length < blockMaxSize) {
+            block    = new byte[blockMaxSize];
+            literals = new byte[blockMaxSize];
+        }
+
+        position   = 0;
+        limit      = 0;
+        frameStart = 0;
+
+        hasHuffmanTable = false;
+        for (int kind = LL; kind <= ML; kind++) {
+            tables[kind] = null;
+        }
+        repeatOffsets[0] = 1;
+        repeatOffsets[1] = 4;
+        repeatOffsets[2] = 8;
+
+        inFrame = true;
+    }
+
+    // slides the window, so a whole block fits the buffer
+    private void makeRoom() {
+        if (buffer.length - limit >= blockMaxSize) {
+            return;
+        }
+        final int keep = Math.min(limit, windowSize);
+        final int shift = limit - keep;
+        System.arraycopy(buffer, shift, buffer, 0, keep);
+        position   -= shift;
+        limit      -= shift;
+        frameStart -= shift;
+    }
+
+    private void decodeCompressedBlock(int size) throws IOException {
+        int offset = decodeLiterals(size);
+
+        if (offset >= size) {
+            throw new IOException("Corrupted Zstandard block: no sequences");
+        }
+        int sequencesCount = block[offset++] & 0xff;
+        if (sequencesCount >= 128) {
+            if (sequencesCount == 255) {
+                if (offset + 2 > size) {
+                    throw new IOException("Corrupted Zstandard block: sequences");
+                }
+                sequencesCount = readInt(block, offset, 2) + 0x7F00;
+                offset += 2;
+            } else {
+                if (offset + 1 > size) {
+                    throw new IOException("Corrupted Zstandard block: sequences");
+                }
+                sequencesCount = ((sequencesCount - 128) << 8) + (block[offset++] & 0xff);
+            }
+        }
+
+        final int blockEnd = limit + blockMaxSize;
+        if (sequencesCount == 0) {
+            if (offset != size) {
+                throw new IOException("Corrupted Zstandard block: sequences");
+            }
+            copyLiterals(0, literalsCount, blockEnd);
+            return;
+        }
+
+        if (offset >= size) {
+            throw new IOException("Corrupted Zstandard block: sequences");
+        }
+        final int modes = block[offset++] & 0xff;
+        if ((modes & 3) != 0) {
+            throw new IOException("Corrupted Zstandard block: reserved sequence modes");
+        }
+        for (int kind = LL; kind <= ML; kind++) {
+            offset = readTable(kind, (modes >> (6 - 2 * kind)) & 3, offset, size);
+        }
+
+        decodeSequences(sequencesCount, offset, size, blockEnd);
+    }
+
+    /**
+     * Decodes the literals section into {@link #literals}.
+     *
+     * @return index of the sequences section in the block.
+     */
+    private int decodeLiterals(int size) throws IOException {
+        if (size < 1) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        final int first = block[0] & 0xff;
+        final int type = first & 3;
+        final int sizeFormat = (first >> 2) & 3;
+
+        if (type == Zstd.LITERALS_RAW || type == Zstd.LITERALS_RLE) {
+            int headerSize;
+            int count;
+            if ((sizeFormat & 1) == 0) {
+                headerSize = 1;
+                count = first >> 3;
+            } else {
+                headerSize = sizeFormat == 1 ? 2 : 3;
+                if (headerSize > size) {
+                    throw new IOException("Corrupted Zstandard literals");
+                }
+                count = readInt(block, 0, headerSize) >>> 4;
+            }
+            if (count > blockMaxSize) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+            literalsCount = count;
+
+            if (type == Zstd.LITERALS_RAW) {
+                if (headerSize + count > size) {
+                    throw new IOException("Corrupted Zstandard literals");
+                }
+                System.arraycopy(block, headerSize, literals, 0, count);
+                return headerSize + count;
+            }
+            if (headerSize + 1 > size) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+            final byte value = block[headerSize];
+            for (int i = 0; i < count; i++) {
+                literals[i] = value;
+            }
+            return headerSize + 1;
+        }
+
+        final boolean singleStream = sizeFormat == 0;
+        final int headerSize = sizeFormat < 2 ? 3 : sizeFormat + 2;
+        final int sizeBits = sizeFormat < 2 ? 10 : (sizeFormat == 2 ? 14 : 18);
+        if (headerSize > size) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        long value = 0;
+        for (int i = headerSize - 1; i >= 0; i--) {
+            value = (value << 8) | (block[i] & 0xff);
+        }
+        final int count = (int) (value >>> 4) & ((1 << sizeBits) - 1);
+        final int compressedSize = (int) (value >>> (4 + sizeBits)) & ((1 << sizeBits) - 1);
+        final int end = headerSize + compressedSize;
+        if (count > blockMaxSize || end > size) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        literalsCount = count;
+
+        int offset = headerSize;
+        if (type == Zstd.LITERALS_COMPRESSED) {
+            offset = ZstdHuffman.readTable(block, offset, end, huffmanTable, reader);
+            hasHuffmanTable = true;
+        } else if (!hasHuffmanTable) {
+            throw new IOException("Corrupted Zstandard literals: no previous Huffman table");
+        }
+
+        if (singleStream) {
+            ZstdHuffman.readStream(block, offset, end, huffmanTable, reader, literals, 0, count);
+            return end;
+        }
+
+        if (offset + 6 > end) {
+            throw new IOException("Corrupted Zstandard literals");
+        }
+        final int segment = (count + 3) >> 2;
+        final int lastSegment = count - 3 * segment;
+        int streamStart = offset + 6;
+        for (int i = 0; i < 4; i++) {
+            final int streamEnd = i < 3 ? streamStart + readInt(block, offset + 2 * i, 2) : end;
+            if (streamEnd > end || lastSegment < 0) {
+                throw new IOException("Corrupted Zstandard literals");
+            }
+            ZstdHuffman.readStream(block, streamStart, streamEnd, huffmanTable, reader,
+                    literals, i * segment, i < 3 ? segment : lastSegment);
+            streamStart = streamEnd;
+        }
+        return end;
+    }
+
+    private int readTable(int kind, int mode, int offset, int size) throws IOException {
+        switch (mode) {
+            case Zstd.MODE_PREDEFINED:
+                tables[kind] = DEFAULT_TABLES[kind];
+                return offset;
+            case Zstd.MODE_RLE:
+                if (offset >= size || (block[offset] & 0xff) > MAX_CODES[kind]) {
+                    throw new IOException("Corrupted Zstandard block: sequence table");
+                }
+                tables[kind] = ZstdFse.buildRleTable(block[offset] & 0xff);
+                return offset + 1;
+            case Zstd.MODE_COMPRESSED:
+                for (int i = 0; i < norm.length; i++) {
+                    norm[i] = 0;
+                }
+                offset = ZstdFse.readDistribution(block, offset, size, MAX_LOGS[kind], norm, distribution);
+                if (distribution[1] > MAX_CODES[kind]) {
+                    throw new IOException("Corrupted Zstandard block: sequence table");
+                }
+                tables[kind] = ZstdFse.buildDecodingTable(norm, distribution[1], distribution[0]);
+                return offset;
+            default:
+                if (tables[kind] == null) {
+                    throw new IOException("Corrupted Zstandard block: no previous sequence table");
+                }
+                return offset;
+        }
+    }
+
+    private void decodeSequences(int count, int offset, int size, int blockEnd) throws IOException {
+        final ZstdFse.DecodingTable llTable = tables[LL];
+        final ZstdFse.DecodingTable ofTable = tables[OF];
+        final ZstdFse.DecodingTable mlTable = tables[ML];
+        final int[] reps = repeatOffsets;
+
+        reader.init(block, offset, size);
+        int llState = reader.readBits(llTable.tableLog);
+        int ofState = reader.readBits(ofTable.tableLog);
+        int mlState = reader.readBits(mlTable.tableLog);
+
+        int literalsPosition = 0;
+        for (int n = count - 1; n >= 0; n--) {
+            final int llCode = llTable.symbols[llState];
+            final int ofCode = ofTable.symbols[ofState];
+            final int mlCode = mlTable.symbols[mlState];
+            if (ofCode > MAX_OFFSET_CODE) {
+                throw new IOException("Corrupted Zstandard block: offset code " + ofCode);
+            }
+
+            final int offsetValue = (1 << ofCode) + reader.readBits(ofCode);
+            final int matchLength = Zstd.ML_BASE[mlCode] + reader.readBits(Zstd.ML_BITS[mlCode]);
+            final int literalsLength = Zstd.LL_BASE[llCode] + reader.readBits(Zstd.LL_BITS[llCode]);
+
+            int matchOffset;
+            if (offsetValue > Zstd.REPEAT_OFFSETS) {
+                matchOffset = offsetValue - Zstd.REPEAT_OFFSETS;
+                reps[2] = reps[1];
+                reps[1] = reps[0];
+                reps[0] = matchOffset;
+            } else {
+                final int index = literalsLength == 0 ? offsetValue : offsetValue - 1;
+                if (index == 0) {
+                    matchOffset = reps[0];
+                } else {
+                    matchOffset = index < Zstd.REPEAT_OFFSETS ? reps[index] : reps[0] - 1;
+                    if (index != 1) {
+                        reps[2] = reps[1];
+                    }
+                    reps[1] = reps[0];
+                    reps[0] = matchOffset;
+                }
+            }
+
+            if (n > 0) {
+                llState = llTable.baselines[llState] + reader.readBits(llTable.bits[llState]);
+                mlState = mlTable.baselines[mlState] + reader.readBits(mlTable.bits[mlState]);
+                ofState = ofTable.baselines[ofState] + reader.readBits(ofTable.bits[ofState]);
+            }
+
+            if (literalsPosition + literalsLength > literalsCount) {
+                throw new IOException("Corrupted Zstandard block: literals length");
+            }
+            copyLiterals(literalsPosition, literalsLength, blockEnd);
+            literalsPosition += literalsLength;
+
+            if (matchOffset <= 0 || matchOffset > windowSize || matchOffset > limit - Math.max(frameStart, 0)) {
+                throw new IOException("Corrupted Zstandard block: offset " + matchOffset);
+            }
+            if (limit + matchLength > blockEnd) {
+                throw new IOException("Corrupted Zstandard block: too much data");
+            }
+            int from = limit - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(buffer, from, buffer, limit, matchLength);
+                limit += matchLength;
+            } else {
+                for (int i = 0; i < matchLength; i++) {
+                    buffer[limit++] = buffer[from++];
+                }
+            }
+        }
+
+        if (!reader.isFinished()) {
+            throw new IOException("Corrupted Zstandard block: sequences");
+        }
+        copyLiterals(literalsPosition, literalsCount - literalsPosition, blockEnd);
+    }
+
+    private void copyLiterals(int from, int count, int blockEnd) throws IOException {
+        if (limit + count > blockEnd) {
+            throw new IOException("Corrupted Zstandard block: too much data");
+        }
+        System.arraycopy(literals, from, buffer, limit, count);
+        limit += count;
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int count = in.read(b, off, len);
+            if (count < 0) {
+                throw new IOException("Unexpected end of Zstandard data");
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            final long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of Zstandard data");
+                }
+                count--;
+            } else {
+                count -= skipped;
+            }
+        }
+    }
+
+    // little endian value of up to 4 bytes
+    private static int readInt(byte[] b, int off, int len) {
+        int value = 0;
+        for (int i = len - 1; i >= 0; i--) {
+            value = (value << 8) | (b[off + i] & 0xff);
+        }
+        return value;
+    }
+}
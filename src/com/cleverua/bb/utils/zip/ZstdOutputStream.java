@@ -0,0 +1,529 @@
+package com.cleverua.bb.utils.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compresses the data written to it into a single Zstandard frame.
+ *
+ * <p>
+ * Memory use is bounded by the level: the data is buffered and compressed
+ * by blocks of {@link #BLOCK_SIZE}, matches are looked for in a window of the last
+ * 64 KB (fast levels) to 256 KB (the best ones) of the data. Fast levels look at a single
+ * match candidate and skip faster through data that does not match, the way LZ4 does;
+ * higher levels walk hash chains deeper and defer a match if the next position has a longer one.
+ * </p>
+ *
+ * <p>
+ * The window grows with the data, and the tables are sized to the data if all of it
+ * is written before the first block is compressed, so a small entry takes little memory.
+ * Once the stream is closed, its buffers and tables are handed over to the {@link ZstdCodec codec},
+ * the next stream of the codec takes them instead of allocating its own.
+ * </p>
+ *
+ * <p>
+ * {@link #flush()} ends the current block, so all the data written so far can be decoded
+ * from the output. The frame has no content size and no checksum, ZIP keeps both of them.
+ * </p>
+ */
+class ZstdOutputStream extends OutputStream {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int MAX_SEQUENCES = 8 * 1024;
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_MULTIPLIER = 0x9E3779B1;
+    private static final int SKIP_SHIFT = 6; // fast levels: step grows by 1 every 64 positions with no match
+    private static final int REBASE_POSITION = 1 << 30; // a multiple of every chain table size
+    private static final int NO_POSITION = -1;           // rebased out of the window
+    private static final int MIN_WINDOW_SIZE = 4 * 1024;
+    private static final int MIN_TABLE_LOG = 8;
+
+    // per level: window log, hash log, chain log (0 for none), search depth, lazy matching
+    private static final int[][] LEVELS = {
+        { 16, 14,  0,   1, 0 },
+        { 17, 15,  0,   1, 0 },
+        { 17, 15, 15,   4, 0 },
+        { 17, 16, 16,   8, 0 },
+        { 18, 16, 16,  16, 1 },
+        { 18, 16, 16,  32, 1 },
+        { 18, 16, 17,  64, 1 },
+        { 18, 16, 17, 128, 1 },
+        { 18, 16, 17, 256, 1 }
+    };
+
+    private OutputStream out;
+    private ZstdCodec codec;
+    private ZstdBlockEncoder encoder;
+
+    private int maxWindowLog;
+    private int maxHashLog;
+    private int maxChainLog;
+    private int windowLog;
+    private int windowSize;
+    private int hashShift;
+    private int[] hashTable;
+    private int[] chainTable;
+    private int chainMask;
+    private int searchDepth;
+    private boolean lazy;
+
+    // the window holds the history followed by the data not compressed yet,
+    // hash and chain tables hold absolute positions: the window start position plus the index
+    private byte[] window;
+    private int windowStart;
+    private int end;
+    private int blockStart;
+    private int nextToHash;
+
+    private byte[] literals;
+    private int literalsCount;
+    private int[] literalsLengths;
+    private int[] matchLengths;
+    private int[] offsetValues;
+    private int sequencesCount;
+
+    private int repeatOffset = 1;    // the decoder's first repeat offset
+    private int newRepeatOffset;     // the one after the block, if the block is compressed
+    private int matchOffset;         // offset of the last found match
+
+    private byte[] block;
+    private boolean headerWritten;
+    private boolean closed;
+
+    /**
+     * Buffers and tables a closed stream hands over to the next stream of the same codec.
+     */
+    static final class State {
+        byte[] window;
+        int[] hashTable;
+        int[] chainTable;
+        byte[] literals;
+        int[] literalsLengths;
+        int[] matchLengths;
+        int[] offsetValues;
+        byte[] block;
+        ZstdBlockEncoder encoder;
+        int nextPosition; // the tables hold positions below this one only
+    }
+
+    /**
+     * @param out - stream to write the frame to.
+     * @param level - compression level from {@link ZipCodecs#ZSTD_LEVEL_FASTEST} to {@link ZipCodecs#ZSTD_LEVEL_BEST}.
+     * @param codec - codec to take the state of a previously closed stream from and to hand this one's over to.
+     */
+    ZstdOutputStream(OutputStream out, int level, ZstdCodec codec) {
+        final int[] params = LEVELS[level - ZipCodecs.ZSTD_LEVEL_FASTEST];
+
+        this.out          = out;
+        this.codec        = codec;
+        this.maxWindowLog = params[0];
+        this.maxHashLog   = params[1];
+        this.maxChainLog  = params[2];
+        this.windowLog    = maxWindowLog;
+        this.windowSize   = 1 << maxWindowLog;
+        this.searchDepth  = params[3];
+        this.lazy         = params[4] != 0;
+
+        State state = codec.takeState();
+        if (state != null) {
+            takeOver(state);
+        }
+    }
+
+    // continues positions after the ones in the tables, so whatever is there is out of the window
+    private void takeOver(State state) {
+        window          = state.window;
+        hashTable       = state.hashTable;
+        chainTable      = state.chainTable;
+        literals        = state.literals;
+        literalsLengths = state.literalsLengths;
+        matchLengths    = state.matchLengths;
+        offsetValues    = state.offsetValues;
+        block           = state.block;
+        encoder         = state.encoder;
+        windowStart     = state.nextPosition;
+
+        if (windowStart >= REBASE_POSITION) {
+            windowStart -= REBASE_POSITION;
+            rebase(hashTable);
+            if (chainTable != null) {
+                rebase(chainTable);
+            }
+        }
+    }
+
+    private State handOver() {
+        State state = new State();
+        state.window          = window;
+        state.hashTable       = hashTable;
+        state.chainTable      = chainTable;
+        state.literals        = literals;
+        state.literalsLengths = literalsLengths;
+        state.matchLengths    = matchLengths;
+        state.offsetValues    = offsetValues;
+        state.block           = block;
+        state.encoder         = encoder;
+        state.nextPosition    = windowStart + end;
+        return state;
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (window == null) {
+            window = new byte[MIN_WINDOW_SIZE];
+        }
+        while (len > 0) {
+            if (end - blockStart == BLOCK_SIZE) {
+                writeBlock(false);
+            }
+            if (end == window.length) {
+                if (window.length < windowSize + BLOCK_SIZE) {
+                    growWindow();
+                } else {
+                    slideWindow();
+                }
+            }
+            final int count = Math.min(len, Math.min(window.length - end, BLOCK_SIZE - (end - blockStart)));
+            System.arraycopy(b, off, window, end, count);
+            end += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Compresses all the buffered data, ending the current block.
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        while (blockStart < end) {
+            writeBlock(false);
+        }
+        out.flush();
+    }
+
+    /**
+     * Finishes the frame and closes the underlying stream.
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        boolean finished = false;
+        try {
+            do {
+                writeBlock(true);
+            } while (blockStart < end);
+            out.flush();
+            finished = true;
+        } finally {
+            closed = true;
+            if (finished) {
+                codec.releaseState(handOver());
+            }
+            window = null;
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    private void growWindow() {
+        byte[] grown = new byte[Math.min(window.length * 2, windowSize + BLOCK_SIZE)];
+        System.arraycopy(window, 0, grown, 0, end);
+        window = grown;
+    }
+
+    // keeps windowSize bytes of history before the data not compressed yet
+    private void slideWindow() {
+        final int shift = blockStart - windowSize;
+        System.arraycopy(window, shift, window, 0, end - shift);
+        windowStart += shift;
+        end         -= shift;
+        blockStart  -= shift;
+        nextToHash  -= shift;
+
+        if (windowStart >= REBASE_POSITION) {
+            // keeps the positions from overflowing, the ones that go negative are out of the window anyway
+            windowStart -= REBASE_POSITION;
+            rebase(hashTable);
+            if (chainTable != null) {
+                rebase(chainTable);
+            }
+        }
+    }
+
+    private static void rebase(int[] positions) {
+        for (int i = 0; i < positions.length; i++) {
+            // positions before the rebase one are out of the window, they must not wrap around later
+            positions[i] = positions[i] >= REBASE_POSITION ? positions[i] - REBASE_POSITION : NO_POSITION;
+        }
+    }
+
+    // compresses the data after blockStart, the block may end before the end of the data
+    private void writeBlock(boolean last) throws IOException {
+        if (!headerWritten) {
+            // the whole data is known if the first block is the last one
+            allocate(last ? end : -1);
+        }
+
+        final int blockEnd = findSequences(blockStart, end);
+        final int size = blockEnd - blockStart;
+        last = last && blockEnd == end;
+
+        final int compressedEnd = size == 0 ? -1 : encoder.encode(literals, literalsCount,
+                literalsLengths, matchLengths, offsetValues, sequencesCount,
+                block, Zstd.BLOCK_HEADER_SIZE, Zstd.BLOCK_HEADER_SIZE + size - 1);
+
+        int blockSize;
+        int type;
+        if (compressedEnd > 0) {
+            type = Zstd.BLOCK_COMPRESSED;
+            blockSize = compressedEnd - Zstd.BLOCK_HEADER_SIZE;
+            repeatOffset = newRepeatOffset;
+        } else {
+            // compression does not pay off, raw blocks do not change the repeat offsets
+            type = Zstd.BLOCK_RAW;
+            blockSize = size;
+            System.arraycopy(window, blockStart, block, Zstd.BLOCK_HEADER_SIZE, size);
+        }
+
+        final int header = (last ? 1 : 0) | (type << 1) | (blockSize << 3);
+        block[0] = (byte) header;
+        block[1] = (byte) (header >> 8);
+        block[2] = (byte) (header >> 16);
+
+        writeFrameHeader();
+        out.write(block, 0, Zstd.BLOCK_HEADER_SIZE + blockSize);
+
+        blockStart = blockEnd;
+    }
+
+    /**
+     * Makes sure the tables and buffers fit the data, reusing the ones taken over if they are big enough.
+     *
+     * @param contentSize - size of the whole data or -1 if it is not known.
+     */
+    private void allocate(int contentSize) {
+        final int dataLog = contentSize < 0 ? Integer.MAX_VALUE : Math.max(getLog(contentSize), MIN_TABLE_LOG);
+        if (contentSize >= 0) {
+            windowLog = Math.max(Zstd.MIN_WINDOW_LOG, Math.min(maxWindowLog, getLog(contentSize)));
+        }
+
+        final int hashLog = Math.min(maxHashLog, dataLog);
+        if (hashTable == null || hashTable.length < 1 << hashLog) {
+            hashTable = new int[1 << hashLog];
+        }
+        hashShift = 32 - Zstd.highBit(hashTable.length);
+
+        if (maxChainLog != 0) {
+            final int chainLog = Math.min(maxChainLog, dataLog);
+            if (chainTable == null || chainTable.length < 1 << chainLog) {
+                chainTable = new int[1 << chainLog];
+            }
+            chainMask = chainTable.length - 1;
+        }
+
+        final int blockSize = contentSize < 0 ? BLOCK_SIZE : Math.min(BLOCK_SIZE, contentSize);
+        if (literals == null || literals.length < blockSize) {
+            literals = new byte[blockSize];
+            block    = new byte[Zstd.BLOCK_HEADER_SIZE + blockSize];
+        }
+
+        // a sequence takes at least MIN_MATCH bytes
+        final int maxSequences = Math.min(MAX_SEQUENCES, blockSize / MIN_MATCH + 1);
+        if (encoder == null || literalsLengths.length < maxSequences) {
+            literalsLengths = new int[maxSequences];
+            matchLengths    = new int[maxSequences];
+            offsetValues    = new int[maxSequences];
+            encoder         = new ZstdBlockEncoder(maxSequences);
+        }
+
+        if (window == null) {
+            window = new byte[MIN_WINDOW_SIZE];
+        }
+    }
+
+    // the least log such that 1 << log holds the size
+    private static int getLog(int size) {
+        return size <= 1 ? 0 : Zstd.highBit(size - 1) + 1;
+    }
+
+    private void writeFrameHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        final int magic = Zstd.MAGIC_NUMBER;
+        out.write(new byte[] {
+                (byte) magic, (byte) (magic >> 8), (byte) (magic >> 16), (byte) (magic >> 24),
+                0, // no content size, no checksum, no dictionary, window descriptor follows
+                (byte) ((windowLog - Zstd.MIN_WINDOW_LOG) << 3)
+        });
+        headerWritten = true;
+    }
+
+    /**
+     * Splits the data into literals and matches.
+     *
+     * @return index right after the last data the sequences cover, it is less than
+     * <code>stop</code> if there are too many sequences for a block.
+     */
+    private int findSequences(int start, int stop) {
+        literalsCount  = 0;
+        sequencesCount = 0;
+        newRepeatOffset = repeatOffset;
+
+        final int matchLimit = stop - MIN_MATCH;
+
+        // the last bytes of the previous block could not be hashed before the data following them came
+        if (chainTable != null) {
+            while (nextToHash < start && nextToHash <= matchLimit) {
+                insert(nextToHash++);
+            }
+        }
+
+        int anchor = start;
+        int i = start;
+        int misses = 0;
+        while (i <= matchLimit) {
+            int length = findMatch(i, stop);
+            if (length == 0) {
+                i += chainTable == null ? 1 + (misses++ >> SKIP_SHIFT) : 1;
+                continue;
+            }
+            misses = 0;
+
+            int offset = matchOffset;
+            while (lazy && i + 1 <= matchLimit) {
+                final int next = findMatch(i + 1, stop);
+                if (next <= length) {
+                    break;
+                }
+                i++;
+                length = next;
+                offset = matchOffset;
+            }
+
+            if (sequencesCount == literalsLengths.length) {
+                return anchor;
+            }
+            addSequence(anchor, i, length, offset);
+
+            i += length;
+            anchor = i;
+
+            if (chainTable != null) {
+                final int hashEnd = Math.min(i, matchLimit + 1);
+                while (nextToHash < hashEnd) {
+                    insert(nextToHash++);
+                }
+            } else if (i - 2 <= matchLimit) {
+                hashTable[hash(i - 2)] = windowStart + i - 2;
+            }
+        }
+
+        System.arraycopy(window, anchor, literals, literalsCount, stop - anchor);
+        literalsCount += stop - anchor;
+        return stop;
+    }
+
+    private void addSequence(int anchor, int position, int length, int offset) {
+        final int literalsLength = position - anchor;
+        System.arraycopy(window, anchor, literals, literalsCount, literalsLength);
+        literalsCount += literalsLength;
+
+        literalsLengths[sequencesCount] = literalsLength;
+        matchLengths[sequencesCount]    = length;
+        if (offset == newRepeatOffset && literalsLength > 0) {
+            offsetValues[sequencesCount] = 1;
+        } else {
+            offsetValues[sequencesCount] = offset + Zstd.REPEAT_OFFSETS;
+            newRepeatOffset = offset;
+        }
+        sequencesCount++;
+    }
+
+    /**
+     * Looks for the longest match at the position (the repeat offset first) and hashes the position.
+     *
+     * @return match length, 0 if there is no match, {@link #matchOffset} gets the offset of the match.
+     */
+    private int findMatch(int i, int stop) {
+        final int position = windowStart + i;
+        final int minPosition = Math.max(windowStart, position - windowSize + 1);
+
+        int candidate = hashTable[hash(i)];
+        if (i >= nextToHash) {
+            insert(i);
+            nextToHash = i + 1;
+        }
+
+        int bestLength = 0;
+        if (position - newRepeatOffset >= minPosition) {
+            final int length = getMatchLength(i, i - newRepeatOffset, stop);
+            if (length >= MIN_MATCH) {
+                bestLength = length;
+                matchOffset = newRepeatOffset;
+            }
+        }
+
+        final int maxLength = stop - i;
+        for (int depth = searchDepth; depth > 0 && bestLength < maxLength
+                && candidate >= minPosition && candidate < position; depth--) {
+            final int j = candidate - windowStart;
+            if (bestLength == 0 || window[j + bestLength] == window[i + bestLength]) {
+                final int length = getMatchLength(i, j, stop);
+                if (length > bestLength && length >= MIN_MATCH) {
+                    bestLength = length;
+                    matchOffset = position - candidate;
+                }
+            }
+
+            if (chainTable == null) {
+                break;
+            }
+            final int next = chainTable[candidate & chainMask];
+            if (next >= candidate || position - next > chainMask) {
+                // the chain entry got overwritten by a newer position
+                break;
+            }
+            candidate = next;
+        }
+
+        return bestLength;
+    }
+
+    private int getMatchLength(int i, int j, int stop) {
+        int length = 0;
+        while (i + length < stop && window[i + length] == window[j + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private void insert(int i) {
+        final int h = hash(i);
+        final int position = windowStart + i;
+        if (chainTable != null) {
+            chainTable[position & chainMask] = hashTable[h];
+        }
+        hashTable[h] = position;
+    }
+
+    private int hash(int i) {
+        final int value = (window[i] & 0xff)
+                | (window[i + 1] & 0xff) << 8
+                | (window[i + 2] & 0xff) << 16
+                | (window[i + 3] & 0xff) << 24;
+        return (value * HASH_MULTIPLIER) >>> hashShift;
+    }
+}